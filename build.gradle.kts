@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -19,6 +20,11 @@ tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
 }
 
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+}
+
 tasks.jar {
     duplicatesStrategy = DuplicatesStrategy.EXCLUDE
     from(configurations.runtimeClasspath.get().filter { it.isDirectory })
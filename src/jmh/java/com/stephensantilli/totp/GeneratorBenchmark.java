@@ -0,0 +1,175 @@
+package com.stephensantilli.totp;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks each way of generating a code, from the original implementation
+ * kept in {@link ReferenceGenerator}, through {@link Generator}'s entry point
+ * that starts from a hex time string, to reusing a {@link MacCache} or the
+ * {@link HmacEngine} from
+ * {@link Generator#createEngine(String, byte[])}, to reading a {@link Code}'s
+ * cached value. The {@code Contended} benchmarks share the same engine and
+ * code between four threads.
+ * 
+ * Time is read from a {@link SimulatedClock}, so every run generates the same
+ * codes. Run with {@code ./gradlew jmh}, which also reports allocations per
+ * operation with JMH's {@code gc} profiler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GeneratorBenchmark {
+
+    private static final String BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    @Param({ "HmacSHA1", "HmacSHA256", "HmacSHA512" })
+    public String crypto;
+
+    @Param({ "6", "8", "10" })
+    public int digits;
+
+    /**
+     * The length of the decoded secret in bytes.
+     */
+    @Param({ "10", "20", "32", "64" })
+    public int keyLength;
+
+    private String secret;
+
+    private byte[] key;
+
+    private String time;
+
+    private long counter;
+
+    private MacCache macs;
+
+    private HmacEngine engine;
+
+    private Code code;
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(keyLength);
+
+        StringBuilder secret = new StringBuilder();
+
+        // Enough characters to decode to exactly keyLength bytes
+        for (int i = 0; i < (keyLength * 8 + 4) / 5; i++)
+            secret.append(BASE32_ALPHABET.charAt(random.nextInt(BASE32_ALPHABET.length())));
+
+        Generator.setClock(new SimulatedClock(1_700_000_000L));
+
+        this.secret = secret.toString();
+        this.key = Base32.decode(this.secret);
+        this.counter = Generator.getCounter(30);
+        this.time = Long.toHexString(counter);
+        this.macs = new MacCache(crypto, key);
+        this.engine = Generator.createEngine(crypto, key);
+        this.code = new Code("Benchmark", secret.toString(), "", digits, 30, crypto, true);
+
+    }
+
+    /**
+     * Per-thread output for the benchmarks that write codes without allocating.
+     */
+    @State(Scope.Thread)
+    public static class Output {
+
+        public final byte[] bytes = new byte[10];
+
+    }
+
+    @Benchmark
+    public String reference() {
+
+        return ReferenceGenerator.generateTOTP(secret, digits, time, crypto);
+
+    }
+
+    /**
+     * {@link Generator}'s hex time string entry point, which creates an
+     * {@link HmacEngine} for every call.
+     */
+    @Benchmark
+    public String hexTime() {
+
+        return Generator.generateTOTP(key, digits, time, crypto);
+
+    }
+
+    @Benchmark
+    public String macCache() {
+
+        return Generator.generateTOTP(macs, digits, counter);
+
+    }
+
+    @Benchmark
+    public String engine() {
+
+        return Generator.generateTOTP(engine, digits, counter);
+
+    }
+
+    @Benchmark
+    public byte[] engineIntoBytes(Output output) {
+
+        Generator.generateTOTP(engine, digits, counter, output.bytes, 0);
+
+        return output.bytes;
+
+    }
+
+    /**
+     * The previous, current, and next codes, as used to tolerate clock skew.
+     */
+    @Benchmark
+    public String[] window() {
+
+        return Generator.generateWindow(engine, digits, counter - 1, 3);
+
+    }
+
+    @Benchmark
+    public String code() {
+
+        return code.generateCode();
+
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String engineContended() {
+
+        return Generator.generateTOTP(engine, digits, counter);
+
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String codeContended() {
+
+        return code.generateCode();
+
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.stephensantilli.totp;
+
+import java.util.Arrays;
+
+/**
+ * Decodes and normalizes Base32 secrets, as described in Section 6 of RFC 4648.
+ * Lowercase letters, whitespace, and trailing padding are accepted, since
+ * secrets are often shown as {@code abcd efgh ijkl ...} or copied with their
+ * padding.
+ * 
+ * @see https://datatracker.ietf.org/doc/html/rfc4648#section-6
+ */
+public class Base32 {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    private static final byte INVALID = -1, SKIP = -2, PADDING = -3;
+
+    /**
+     * Maps each ASCII character to its 5-bit value, or to {@link #INVALID},
+     * {@link #SKIP}, or {@link #PADDING}.
+     */
+    private static final byte[] LOOKUP = new byte[128];
+
+    static {
+
+        Arrays.fill(LOOKUP, INVALID);
+
+        for (int i = 0; i < ALPHABET.length(); i++) {
+
+            char c = ALPHABET.charAt(i);
+
+            LOOKUP[c] = (byte) i;
+            LOOKUP[Character.toLowerCase(c)] = (byte) i;
+
+        }
+
+        LOOKUP[' '] = SKIP;
+        LOOKUP['\t'] = SKIP;
+        LOOKUP['\r'] = SKIP;
+        LOOKUP['\n'] = SKIP;
+        LOOKUP['='] = PADDING;
+
+    }
+
+    /**
+     * Decodes a Base32 string in a single pass. Any bits left over after the last
+     * full byte are dropped.
+     * 
+     * @param base32 The Base32 string
+     * @return The decoded bytes
+     * @throws IllegalArgumentException If {@code base32} contains a character
+     *                                  outside of the alphabet, or data after
+     *                                  padding
+     */
+    public static byte[] decode(String base32) {
+
+        byte[] result = new byte[base32.length() * 5 / 8];
+
+        int buffer = 0, bitsLeft = 0, length = 0;
+        boolean padded = false;
+
+        for (int i = 0; i < base32.length(); i++) {
+
+            int val = valueOf(base32.charAt(i));
+
+            if (val == SKIP)
+                continue;
+
+            if (val == PADDING) {
+
+                padded = true;
+                continue;
+
+            }
+
+            if (padded)
+                throw new IllegalArgumentException("Invalid Base32 padding. It may only appear at the end.");
+
+            buffer = (buffer << 5) | val;
+            bitsLeft += 5;
+
+            if (bitsLeft >= 8) {
+
+                bitsLeft -= 8;
+                result[length++] = (byte) (buffer >> bitsLeft);
+
+            }
+
+        }
+
+        return length == result.length ? result : Arrays.copyOf(result, length);
+
+    }
+
+    /**
+     * Normalizes a Base32 string to uppercase without whitespace or padding. This
+     * is the form secrets are stored and shared in.
+     * 
+     * @param base32 The Base32 string
+     * @return The normalized string
+     * @throws IllegalArgumentException If {@code base32} contains a character
+     *                                  outside of the alphabet, or data after
+     *                                  padding
+     */
+    public static String normalize(String base32) {
+
+        StringBuilder normalized = new StringBuilder(base32.length());
+        boolean padded = false;
+
+        for (int i = 0; i < base32.length(); i++) {
+
+            int val = valueOf(base32.charAt(i));
+
+            if (val == SKIP)
+                continue;
+
+            if (val == PADDING) {
+
+                padded = true;
+                continue;
+
+            }
+
+            if (padded)
+                throw new IllegalArgumentException("Invalid Base32 padding. It may only appear at the end.");
+
+            normalized.append(ALPHABET.charAt(val));
+
+        }
+
+        return normalized.toString();
+
+    }
+
+    /**
+     * @param c A character of a Base32 string
+     * @return The character's value, {@link #SKIP}, or {@link #PADDING}
+     * @throws IllegalArgumentException If {@code c} is not a valid character
+     */
+    private static int valueOf(char c) {
+
+        int val = c < LOOKUP.length ? LOOKUP[c] : INVALID;
+
+        if (val == INVALID)
+            throw new IllegalArgumentException("Invalid Base32 char: " + c);
+
+        return val;
+
+    }
+
+}
@@ -1,28 +1,80 @@
 package com.stephensantilli.totp;
 
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 /**
  * Represents a single TOTP code. This stores all of the information needed to
  * generate and display the code.
  */
 public class Code {
 
+    /**
+     * The default number of milliseconds a code's regex may search a request
+     * for.
+     */
+    public static final int DEFAULT_REGEX_TIMEOUT = 100;
+
     private String name, base32Secret, crypto, match;
 
     private int digits, duration;
 
+    private volatile int regexTimeout = DEFAULT_REGEX_TIMEOUT;
+
+    /**
+     * The parts of a request this code's match string is searched for in. If
+     * this is empty, the whole request is searched.
+     */
+    private volatile List<SearchRegion> regions = List.of();
+
+    /**
+     * The headers and parameters this code's value is written to. If this isn't
+     * empty, requests aren't searched for this code's match string.
+     */
+    private volatile List<InjectionTarget> targets = List.of();
+
     private boolean enabled;
 
+    /**
+     * The decoded bytes of {@link #base32Secret}. This is only derived when the
+     * secret changes so that generating a code never has to decode it again.
+     */
+    private volatile byte[] key;
+
+    /**
+     * The {@link HmacEngine} for {@link #key} and {@link #crypto}. Replaced
+     * whenever either of them changes.
+     */
+    private volatile HmacEngine hmac;
+
+    /**
+     * The codes for the most recently requested time step and the one after it.
+     * A TOTP only has one value per step, so this is shared by the UI timer, the
+     * context menu, and Burp's HTTP threads.
+     */
+    private volatile StepCache steps;
+
+    /**
+     * {@link #match} compiled as a regex, or {@code null} if it isn't a valid
+     * one. This is only used when regex matching is enabled.
+     */
+    private volatile Pattern pattern;
+
     public Code(String name, String base32Secret, String match, int digits, int duration,
             String crypto,
             boolean enabled) {
 
         this.name = name;
-        this.base32Secret = base32Secret;
+        this.base32Secret = Base32.normalize(base32Secret);
+        this.key = Base32.decode(this.base32Secret);
         this.match = match;
+        this.pattern = compile(match);
         this.digits = digits;
         this.duration = duration;
         this.crypto = crypto;
         this.enabled = enabled;
+        this.hmac = Generator.createEngine(crypto, key);
 
     }
 
@@ -52,10 +104,91 @@ public class Code {
         this.name = name;
     }
 
+    /**
+     * Gets the code for the current time step. Each step's code is only computed
+     * once; the following step's code is computed alongside it so that the
+     * rollover is served from the cache too. The cache is keyed by this code's
+     * {@link HmacEngine}, digits, and duration, so any change to them invalidates
+     * it.
+     * 
+     * @return The currently valid TOTP
+     * @see #precompute(int)
+     */
     public String generateCode() {
 
-        return Generator.generateTOTP(base32Secret, digits, duration, crypto);
+        HmacEngine hmac = this.hmac;
+        int digits = this.digits, duration = this.duration;
+
+        long counter = Generator.getCounter(duration);
+
+        StepCache cached = steps;
+
+        if (cached != null && cached.isFor(hmac, digits, duration)) {
+
+            String current = cached.get(counter);
+
+            if (current != null)
+                return current;
+
+        }
+
+        return cacheSteps(hmac, digits, duration, counter, 1)[0];
+
+    }
+
+    /**
+     * Computes the codes for the current time step and the next {@code ahead}
+     * steps, and publishes them in a single write. Codes that are already cached
+     * are reused.
+     * 
+     * @param ahead The number of future steps to compute
+     * @see Precomputer
+     */
+    public void precompute(int ahead) {
+
+        HmacEngine hmac = this.hmac;
+        int digits = this.digits, duration = this.duration;
+
+        cacheSteps(hmac, digits, duration, Generator.getCounter(duration), ahead);
+
+    }
+
+    private String[] cacheSteps(HmacEngine hmac, int digits, int duration, long counter, int ahead) {
+
+        StepCache cached = steps;
+
+        String[] codes;
+
+        if (cached != null && cached.isFor(hmac, digits, duration)) {
+
+            codes = new String[ahead + 1];
+
+            for (int i = 0; i < codes.length; i++) {
+
+                String code = cached.get(counter + i);
+
+                codes[i] = code != null ? code : Generator.generateTOTP(hmac, digits, counter + i);
+
+            }
+
+        } else {
+
+            codes = Generator.generateWindow(hmac, digits, counter, ahead + 1);
+
+        }
+
+        this.steps = new StepCache(hmac, digits, duration, counter, codes);
+
+        return codes;
+
+    }
+
+    /**
+     * @return The {@link HmacEngine} for this code's secret and algorithm
+     */
+    public HmacEngine getEngine() {
 
+        return hmac;
     }
 
     public String getBase32Secret() {
@@ -65,7 +198,9 @@ public class Code {
 
     public void setBase32Secret(String base32Secret) {
 
-        this.base32Secret = base32Secret;
+        this.key = Base32.decode(base32Secret);
+        this.base32Secret = Base32.normalize(base32Secret);
+        this.hmac = Generator.createEngine(crypto, key);
     }
 
     public String getCrypto() {
@@ -76,6 +211,7 @@ public class Code {
     public void setCrypto(String crypto) {
 
         this.crypto = crypto;
+        this.hmac = Generator.createEngine(crypto, key);
     }
 
     public String getMatch() {
@@ -86,6 +222,75 @@ public class Code {
     public void setMatch(String regex) {
 
         this.match = regex;
+        this.pattern = compile(regex);
+    }
+
+    /**
+     * @return This code's match string compiled as a regex, or {@code null} if
+     *         it isn't valid
+     */
+    public Pattern getPattern() {
+
+        return pattern;
+    }
+
+    /**
+     * @return The number of milliseconds this code's regex may search a request
+     *         for
+     */
+    public int getRegexTimeout() {
+
+        return regexTimeout;
+    }
+
+    public void setRegexTimeout(int regexTimeout) {
+
+        if (regexTimeout < 1)
+            throw new IllegalArgumentException("The regex time limit must be at least 1 ms.");
+
+        this.regexTimeout = regexTimeout;
+    }
+
+    /**
+     * @return The parts of a request this code's match string is searched for
+     *         in, or an empty list if the whole request is searched
+     */
+    public List<SearchRegion> getRegions() {
+
+        return regions;
+    }
+
+    public void setRegions(List<SearchRegion> regions) {
+
+        this.regions = List.copyOf(regions);
+    }
+
+    /**
+     * @return The headers and parameters this code's value is written to, or an
+     *         empty list if its match string is searched for instead
+     */
+    public List<InjectionTarget> getTargets() {
+
+        return targets;
+    }
+
+    public void setTargets(List<InjectionTarget> targets) {
+
+        this.targets = List.copyOf(targets);
+    }
+
+    private static Pattern compile(String regex) {
+
+        try {
+
+            return Pattern.compile(regex);
+
+        } catch (PatternSyntaxException e) {
+
+            return null;
+
+        }
+
     }
 
     public int getDigits() {
@@ -145,7 +350,7 @@ public class Code {
 
         }
 
-        String secret = this.base32Secret.replaceAll(" ", "").toUpperCase().trim();
+        String secret = this.base32Secret;
         String algorithm = this.crypto;
         switch (algorithm) {
             case "HmacSHA1":
@@ -170,4 +375,52 @@ public class Code {
 
     }
 
+    /**
+     * An immutable set of codes for consecutive time steps, along with the
+     * parameters they were generated with. A cache is ignored once the
+     * {@link Code} it belongs to has been changed.
+     */
+    private static final class StepCache {
+
+        private final HmacEngine hmac;
+
+        private final int digits, duration;
+
+        private final long first;
+
+        private final String[] codes;
+
+        private StepCache(HmacEngine hmac, int digits, int duration, long first, String[] codes) {
+
+            this.hmac = hmac;
+            this.digits = digits;
+            this.duration = duration;
+            this.first = first;
+            this.codes = codes;
+
+        }
+
+        private boolean isFor(HmacEngine hmac, int digits, int duration) {
+
+            return this.hmac == hmac && this.digits == digits && this.duration == duration;
+
+        }
+
+        /**
+         * @param counter The time step
+         * @return The code for that step, or {@code null} if it is not cached
+         */
+        private String get(long counter) {
+
+            long index = counter - first;
+
+            if (index < 0 || index >= codes.length)
+                return null;
+
+            return codes[(int) index];
+
+        }
+
+    }
+
 }
@@ -0,0 +1,92 @@
+package com.stephensantilli.totp;
+
+/**
+ * Wraps a {@link CharSequence} so that reading it fails once a deadline has
+ * passed. Regexes read their input one character at a time, so matching
+ * against this stops a pattern that backtracks catastrophically instead of
+ * letting it run unbounded.
+ */
+public class DeadlineCharSequence implements CharSequence {
+
+    /**
+     * How many characters are read between checks of the clock.
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final CharSequence content;
+
+    private final long deadline;
+
+    private int reads;
+
+    /**
+     * @param content     The sequence to read
+     * @param timeoutNanos How long the sequence may be read for, from now
+     */
+    public DeadlineCharSequence(CharSequence content, long timeoutNanos) {
+
+        this(content, System.nanoTime(), timeoutNanos);
+
+    }
+
+    private DeadlineCharSequence(CharSequence content, long start, long timeoutNanos) {
+
+        this.content = content;
+        this.deadline = start + timeoutNanos;
+
+    }
+
+    /**
+     * @throws TimeoutException If the deadline has passed
+     */
+    @Override
+    public char charAt(int index) {
+
+        if (++reads == CHECK_INTERVAL) {
+
+            reads = 0;
+
+            if (System.nanoTime() - deadline > 0)
+                throw new TimeoutException();
+
+        }
+
+        return content.charAt(index);
+
+    }
+
+    @Override
+    public int length() {
+
+        return content.length();
+
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+
+        return new DeadlineCharSequence(content.subSequence(start, end), deadline, 0);
+
+    }
+
+    @Override
+    public String toString() {
+
+        return content.toString();
+
+    }
+
+    /**
+     * Thrown when a {@link DeadlineCharSequence} is read after its deadline.
+     */
+    public static class TimeoutException extends RuntimeException {
+
+        public TimeoutException() {
+
+            super("The regex took too long to match.", null, false, false);
+
+        }
+
+    }
+
+}
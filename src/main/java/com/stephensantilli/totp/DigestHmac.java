@@ -0,0 +1,116 @@
+package com.stephensantilli.totp;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * An HMAC that hashes the inner and outer padded key blocks once per key, as
+ * described in Section 4 of RFC 2104. Each code then starts from a copy of
+ * those intermediate states, so it only takes one compression of the counter
+ * and one of the inner digest. The JCE digests are used for the compression
+ * itself, so hardware SHA instructions still apply.
+ * 
+ * @see https://datatracker.ietf.org/doc/html/rfc2104#section-4
+ */
+final class DigestHmac implements HmacEngine {
+
+    private static final byte IPAD = 0x36, OPAD = 0x5c;
+
+    /**
+     * The digests after hashing the key XORed with the inner and outer pads.
+     * These are never updated after construction, only cloned.
+     */
+    private final MessageDigest inner, outer;
+
+    private final int macLength;
+
+    /**
+     * @param digest    The name of the underlying hash algorithm
+     * @param blockSize The block size of the hash algorithm, in bytes
+     * @param key       The raw HMAC key
+     * @throws GeneralSecurityException If the digest is unavailable
+     * @throws CloneNotSupportedException If the provider's digest cannot be
+     *                                    copied
+     */
+    DigestHmac(String digest, int blockSize, byte[] key)
+            throws GeneralSecurityException, CloneNotSupportedException {
+
+        this.inner = MessageDigest.getInstance(digest);
+        this.outer = MessageDigest.getInstance(digest);
+        this.macLength = inner.getDigestLength();
+
+        if (key.length > blockSize)
+            key = MessageDigest.getInstance(digest).digest(key);
+
+        byte[] block = new byte[blockSize];
+
+        for (int i = 0; i < blockSize; i++) {
+
+            byte b = i < key.length ? key[i] : 0;
+
+            block[i] = (byte) (b ^ IPAD);
+
+        }
+
+        inner.update(block);
+
+        for (int i = 0; i < blockSize; i++)
+            block[i] ^= IPAD ^ OPAD;
+
+        outer.update(block);
+
+        // Fail now, rather than on the first code, if the digest can't be copied
+        inner.clone();
+
+    }
+
+    @Override
+    public int getMacLength() {
+
+        return macLength;
+
+    }
+
+    @Override
+    public void doFinal(long counter, byte[] dest, int offset) {
+
+        try {
+
+            MessageDigest hash = copy(inner);
+
+            for (int shift = 56; shift >= 0; shift -= 8)
+                hash.update((byte) (counter >>> shift));
+
+            hash.digest(dest, offset, macLength);
+
+            hash = copy(outer);
+
+            hash.update(dest, offset, macLength);
+            hash.digest(dest, offset, macLength);
+
+        } catch (DigestException de) {
+
+            throw new UndeclaredThrowableException(de);
+
+        }
+
+    }
+
+    private static MessageDigest copy(MessageDigest digest) {
+
+        try {
+
+            return (MessageDigest) digest.clone();
+
+        } catch (CloneNotSupportedException cnse) {
+
+            // Checked in the constructor
+            throw new UndeclaredThrowableException(cnse);
+
+        }
+
+    }
+
+}
@@ -15,8 +15,6 @@ import java.security.GeneralSecurityException;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
-import java.math.BigInteger;
-
 /**
  * Used to generate the valid TOTP code at any given time.
  * 
@@ -28,10 +26,42 @@ import java.math.BigInteger;
  */
 public class Generator {
 
+    // 0 1 2 3 4 5 6 7 8 9
+    private static final int[] DIGITS_POWER = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+            1000000000 };
+
+    /**
+     * Scratch space for the HMAC, which is at most 64 bytes for HmacSHA512.
+     */
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[64]);
+
+    private static volatile StepClock clock = StepClock.SYSTEM;
+
     public static String generateTOTP(String base32Secret, int digits, int duration, String crypto) {
 
-        return generateTOTP(base32Secret, digits, Long.toHexString(System.currentTimeMillis() / 1000 / duration),
-                crypto);
+        return generateTOTP(base32Str2Bytes(base32Secret), digits, duration, crypto);
+
+    }
+
+    /**
+     * Generates the TOTP for the current time from an already decoded key.
+     * 
+     * @param key
+     *                 The raw bytes of the secret key
+     * @param digits
+     *                 The number of digits, typically 6 or 8.
+     * @param duration
+     *                 The number of seconds each code is valid for
+     * @param crypto
+     *                 The crypto algorithm to use (HmacSHA1, HmacSHA256,
+     *                 HmacSHA512)
+     * @return A time-based one-time password according to RFC 6238 with the
+     *         supplied parameters.
+     * @see #base32Str2Bytes(String)
+     */
+    public static String generateTOTP(byte[] key, int digits, int duration, String crypto) {
+
+        return generateTOTP(createEngine(crypto, key), digits, getCounter(duration));
 
     }
 
@@ -52,137 +82,383 @@ public class Generator {
      */
     public static String generateTOTP(String base32Secret, int digits, String time, String crypto) {
 
-        String result = null;
+        return generateTOTP(base32Str2Bytes(base32Secret), digits, time, crypto);
+
+    }
+
+    /**
+     * Generates a TOTP from an already decoded key.
+     * 
+     * @param key
+     *               The raw bytes of the secret key
+     * @param digits
+     *               The number of digits, typically 6 or 8.
+     * @param time
+     *               The time step to calculate the TOTP for, in hex.
+     * @param crypto
+     *               The crypto algorithm to use (HmacSHA1, HmacSHA256,
+     *               HmacSHA512)
+     * @return A time-based one-time password according to RFC 6238 with the
+     *         supplied parameters.
+     */
+    public static String generateTOTP(byte[] key, int digits, String time, String crypto) {
+
+        return generateTOTP(createEngine(crypto, key), digits, time);
 
-        // Using the counter
-        // First 8 bytes are for the movingFactor
-        // Compliant with base RFC 4226 (HOTP)
-        while (time.length() < 16)
-            time = "0" + time;
+    }
 
-        // Get the HEX in a Byte[]
-        byte[] msg = hexStr2Bytes(time);
+    /**
+     * Generates the TOTP for the current time using an {@link HmacEngine}.
+     * 
+     * @param hmac
+     *                 The {@link HmacEngine} for the secret key
+     * @param digits
+     *                 The number of digits, typically 6 or 8.
+     * @param duration
+     *                 The number of seconds each code is valid for
+     * @return A time-based one-time password according to RFC 6238 with the
+     *         supplied parameters.
+     */
+    public static String generateTOTP(HmacEngine hmac, int digits, int duration) {
 
-        // TODO: This can probably be made more efficient
-        byte[] k = hexStr2Bytes(base32Str2HexStr(base32Secret));
+        return generateTOTP(hmac, digits, getCounter(duration));
 
-        byte[] hash = hmac_sha(crypto, k, msg);
+    }
 
-        // put selected bytes into result int
-        int offset = hash[hash.length - 1] & 0xf;
+    /**
+     * Generates the TOTP for a time step using an {@link HmacEngine}.
+     * 
+     * @param hmac
+     *                The {@link HmacEngine} for the secret key
+     * @param digits
+     *                The number of digits, typically 6 or 8.
+     * @param counter
+     *                The time step to calculate the TOTP for
+     * @return A time-based one-time password according to RFC 6238 with the
+     *         supplied parameters.
+     * @see #getCounter(int)
+     */
+    public static String generateTOTP(HmacEngine hmac, int digits, long counter) {
+
+        char[] result = new char[digits < 1 ? 0 : digits];
+
+        generateTOTP(hmac, digits, counter, result, 0);
+
+        return new String(result);
+
+    }
+
+    /**
+     * Generates the codes for a range of consecutive time steps, such as the
+     * steps either side of the current one to tolerate clock skew.
+     * 
+     * @param code
+     *                 The code to generate values for
+     * @param fromStep
+     *                 The first time step in the range
+     * @param count
+     *                 The number of time steps in the range
+     * @return The code for each step, starting with {@code fromStep}
+     * @see #getCounter(int)
+     */
+    public static String[] generateWindow(Code code, long fromStep, int count) {
+
+        return generateWindow(code.getEngine(), code.getDigits(), fromStep, count);
+
+    }
+
+    /**
+     * Generates the codes for a range of consecutive time steps using an
+     * {@link HmacEngine}. The engine's key state and the HMAC scratch space are
+     * shared by the whole range.
+     * 
+     * @param hmac
+     *                 The {@link HmacEngine} for the secret key
+     * @param digits
+     *                 The number of digits, typically 6 or 8.
+     * @param fromStep
+     *                 The first time step in the range
+     * @param count
+     *                 The number of time steps in the range
+     * @return The code for each step, starting with {@code fromStep}
+     */
+    public static String[] generateWindow(HmacEngine hmac, int digits, long fromStep, int count) {
+
+        if (digits < 1)
+            throw new IllegalArgumentException("The code length must be at least 1.");
+
+        if (count < 0)
+            throw new IllegalArgumentException("The number of steps can't be negative.");
+
+        byte[] buffer = BUFFERS.get();
+        char[] chars = new char[digits];
+
+        String[] codes = new String[count];
 
-        int binary = ((hash[offset] & 0x7f) << 24) |
-                ((hash[offset + 1] & 0xff) << 16) |
-                ((hash[offset + 2] & 0xff) << 8) |
-                (hash[offset + 3] & 0xff);
+        for (int i = 0; i < count; i++) {
 
-        int otp = binary % (int) Math.pow(10, digits);
+            int otp = generateOTP(hmac, digits, fromStep + i, buffer);
 
-        result = Integer.toString(otp);
+            for (int j = digits - 1; j >= 0; j--) {
 
-        while (result.length() < digits) {
+                chars[j] = (char) ('0' + otp % 10);
+                otp /= 10;
 
-            result = "0" + result;
+            }
+
+            codes[i] = new String(chars);
 
         }
 
-        return result;
+        return codes;
 
     }
 
     /**
-     * This method uses the JCE to provide the crypto algorithm.
-     * HMAC computes a Hashed Message Authentication Code with the
-     * crypto hash algorithm as a parameter.
-     *
-     * @param crypto
-     *                 the crypto algorithm (HmacSHA1, HmacSHA256,
-     *                 HmacSHA512)
-     * @param keyBytes
-     *                 the bytes to use for the HMAC key
-     * @param text
-     *                 the message or text to be authenticated
+     * Gets the current time step for codes with the given duration, according
+     * to the current {@link StepClock}.
+     * 
+     * @param duration
+     *                 The number of seconds each code is valid for
+     * @return The number of whole durations since the Unix epoch
      */
-    private static byte[] hmac_sha(String crypto, byte[] keyBytes,
-            byte[] text) {
+    public static long getCounter(int duration) {
 
-        try {
+        return clock.getCounter(duration);
 
-            Mac hmac;
-            hmac = Mac.getInstance(crypto);
+    }
 
-            SecretKeySpec macKey = new SecretKeySpec(keyBytes, "RAW");
+    /**
+     * @return The clock that every code's current time step is read from
+     */
+    public static StepClock getClock() {
 
-            hmac.init(macKey);
+        return clock;
 
-            return hmac.doFinal(text);
+    }
 
-        } catch (GeneralSecurityException gse) {
+    /**
+     * Replaces the clock that every code's current time step is read from. This
+     * is {@link StepClock#SYSTEM} until it is changed.
+     * 
+     * @param clock
+     *              The new clock
+     */
+    public static void setClock(StepClock clock) {
 
-            throw new UndeclaredThrowableException(gse);
+        Generator.clock = clock;
+
+    }
+
+    /**
+     * Generates a TOTP using an {@link HmacEngine}.
+     * 
+     * @param hmac
+     *               The {@link HmacEngine} for the secret key
+     * @param digits
+     *               The number of digits, typically 6 or 8.
+     * @param time
+     *               The time step to calculate the TOTP for, in hex.
+     * @return A time-based one-time password according to RFC 6238 with the
+     *         supplied parameters.
+     */
+    public static String generateTOTP(HmacEngine hmac, int digits, String time) {
+
+        return generateTOTP(hmac, digits, Long.parseUnsignedLong(time, 16));
+
+    }
+
+    /**
+     * Writes the TOTP for a time step into {@code dest} as ASCII digits, without
+     * creating any intermediate objects.
+     * 
+     * @param hmac
+     *                The {@link HmacEngine} for the secret key
+     * @param digits
+     *                The number of digits, typically 6 or 8.
+     * @param counter
+     *                The time step to calculate the TOTP for
+     * @param dest
+     *                The array to write the code into
+     * @param offset
+     *                The index in {@code dest} of the code's first digit
+     */
+    public static void generateTOTP(HmacEngine hmac, int digits, long counter, byte[] dest, int offset) {
+
+        int otp = generateOTP(hmac, digits, counter);
+
+        for (int i = offset + digits - 1; i >= offset; i--) {
+
+            dest[i] = (byte) ('0' + otp % 10);
+            otp /= 10;
 
         }
 
     }
 
     /**
-     * This method converts a HEX string to Byte[]
-     *
-     * @param hex
-     *            the HEX string
-     * @return a byte array
+     * Writes the TOTP for a time step into {@code dest}, without creating any
+     * intermediate objects.
+     * 
+     * @param hmac
+     *                The {@link HmacEngine} for the secret key
+     * @param digits
+     *                The number of digits, typically 6 or 8.
+     * @param counter
+     *                The time step to calculate the TOTP for
+     * @param dest
+     *                The array to write the code into
+     * @param offset
+     *                The index in {@code dest} of the code's first digit
      */
-    private static byte[] hexStr2Bytes(String hex) {
+    public static void generateTOTP(HmacEngine hmac, int digits, long counter, char[] dest, int offset) {
 
-        // Adding one byte to get the right conversion
-        // Values starting with "0" can be converted
-        byte[] bArray = new BigInteger("10" + hex, 16).toByteArray();
+        int otp = generateOTP(hmac, digits, counter);
 
-        // Copy all the REAL bytes, not the "first"
-        byte[] ret = new byte[bArray.length - 1];
+        for (int i = offset + digits - 1; i >= offset; i--) {
 
-        for (int i = 0; i < ret.length; i++)
-            ret[i] = bArray[i + 1];
+            dest[i] = (char) ('0' + otp % 10);
+            otp /= 10;
 
-        return ret;
+        }
 
     }
 
     /**
-     * This method converts a Base32 string to a Base16 (Hexadecimal) string
-     *
-     * @param hex
-     *            the Base32 string
-     * @return a byte array
+     * Computes the HOTP value for a counter, truncated to {@code digits} digits.
+     * The HMAC is written into a buffer that is reused by the calling thread.
+     * 
+     * @param hmac
+     *                The {@link HmacEngine} for the secret key
+     * @param digits
+     *                The number of digits, typically 6 or 8.
+     * @param counter
+     *                The moving factor
+     * @return The code as an integer, which must be left-padded with zeros to
+     *         {@code digits} digits.
+     */
+    private static int generateOTP(HmacEngine hmac, int digits, long counter) {
+
+        if (digits < 1)
+            throw new IllegalArgumentException("The code length must be at least 1.");
+
+        return generateOTP(hmac, digits, counter, BUFFERS.get());
+
+    }
+
+    /**
+     * Computes the HOTP value for a counter, truncated to {@code digits} digits,
+     * using {@code buffer} as scratch space for the HMAC.
+     * 
+     * @return The code as an integer, which must be left-padded with zeros to
+     *         {@code digits} digits.
      */
-    private static String base32Str2HexStr(String base32) {
+    private static int generateOTP(HmacEngine hmac, int digits, long counter, byte[] buffer) {
 
-        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
-        base32 = base32.toUpperCase().replaceAll("[= ]", "");
+        hmac.doFinal(counter, buffer, 0);
 
-        int buffer = 0, bitsLeft = 0;
-        StringBuilder hex = new StringBuilder();
+        // put selected bytes into result int
+        int offset = buffer[hmac.getMacLength() - 1] & 0xf;
 
-        for (char c : base32.toCharArray()) {
+        int binary = ((buffer[offset] & 0x7f) << 24) |
+                ((buffer[offset + 1] & 0xff) << 16) |
+                ((buffer[offset + 2] & 0xff) << 8) |
+                (buffer[offset + 3] & 0xff);
 
-            int val = alphabet.indexOf(c);
-            if (val < 0)
-                throw new IllegalArgumentException("Invalid Base32 char: " + c);
+        // A 31-bit value never has more than 10 digits
+        if (digits >= DIGITS_POWER.length)
+            return binary;
 
-            buffer = (buffer << 5) | val;
-            bitsLeft += 5;
+        return binary % DIGITS_POWER[digits];
+
+    }
+
+    /**
+     * Creates the {@link HmacEngine} used to generate codes for a key. SHA-1,
+     * SHA-256 and SHA-512 cache the hash state of the padded key; any other
+     * algorithm, or a provider whose digests can't be copied, falls back to a
+     * {@link MacCache}.
+     * 
+     * @param crypto
+     *                 the crypto algorithm (HmacSHA1, HmacSHA256,
+     *                 HmacSHA512)
+     * @param keyBytes
+     *                 the bytes to use for the HMAC key
+     * @return an {@link HmacEngine} for {@code keyBytes}
+     * @throws IllegalArgumentException If the key is empty
+     */
+    public static HmacEngine createEngine(String crypto, byte[] keyBytes) {
 
-            while (bitsLeft >= 8) {
+        if (keyBytes.length == 0)
+            throw new IllegalArgumentException("Empty key");
 
-                bitsLeft -= 8;
-                int b = (buffer >> bitsLeft) & 0xFF;
-                hex.append(String.format("%02x", b));
+        try {
 
+            switch (crypto) {
+                case "HmacSHA1":
+                    return new DigestHmac("SHA-1", 64, keyBytes);
+                case "HmacSHA256":
+                    return new DigestHmac("SHA-256", 64, keyBytes);
+                case "HmacSHA512":
+                    return new DigestHmac("SHA-512", 128, keyBytes);
             }
 
+        } catch (GeneralSecurityException | CloneNotSupportedException e) {
+
+            // Use the JCE's HMAC instead
+
+        }
+
+        return new MacCache(crypto, keyBytes);
+
+    }
+
+    /**
+     * This method uses the JCE to provide the crypto algorithm.
+     * Creates a {@link Mac} that computes a Hashed Message Authentication Code
+     * with the crypto hash algorithm as a parameter.
+     *
+     * @param crypto
+     *                 the crypto algorithm (HmacSHA1, HmacSHA256,
+     *                 HmacSHA512)
+     * @param keyBytes
+     *                 the bytes to use for the HMAC key
+     * @return a {@link Mac} initialized with {@code keyBytes}
+     */
+    public static Mac initMac(String crypto, byte[] keyBytes) {
+
+        try {
+
+            Mac hmac;
+            hmac = Mac.getInstance(crypto);
+
+            SecretKeySpec macKey = new SecretKeySpec(keyBytes, "RAW");
+
+            hmac.init(macKey);
+
+            return hmac;
+
+        } catch (GeneralSecurityException gse) {
+
+            throw new UndeclaredThrowableException(gse);
+
         }
 
-        return hex.toString();
+    }
+
+    /**
+     * Decodes a Base32 secret into the raw key bytes used for the HMAC.
+     *
+     * @param base32
+     *               the Base32 string
+     * @return the decoded key
+     * @throws IllegalArgumentException If the secret contains a character outside
+     *                                  of the Base32 alphabet
+     * @see Base32#decode(String)
+     */
+    public static byte[] base32Str2Bytes(String base32) {
+
+        return Base32.decode(base32);
 
     }
 
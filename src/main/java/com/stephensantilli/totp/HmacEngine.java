@@ -0,0 +1,26 @@
+package com.stephensantilli.totp;
+
+/**
+ * Computes the HMAC of a TOTP counter for a single key. Implementations are
+ * safe to share between threads.
+ * 
+ * @see Generator#createEngine(String, byte[])
+ */
+public interface HmacEngine {
+
+    /**
+     * @return The length of the HMAC in bytes
+     */
+    public int getMacLength();
+
+    /**
+     * Computes the HMAC of {@code counter}, encoded as 8 big-endian bytes as
+     * required by RFC 4226, and writes it into {@code dest}.
+     * 
+     * @param counter The moving factor to authenticate
+     * @param dest    The array to write the HMAC into
+     * @param offset  The index in {@code dest} to start writing at
+     */
+    public void doFinal(long counter, byte[] dest, int offset);
+
+}
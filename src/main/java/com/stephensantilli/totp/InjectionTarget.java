@@ -0,0 +1,171 @@
+package com.stephensantilli.totp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import burp.api.montoya.http.message.params.HttpParameter;
+import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+/**
+ * A header or parameter that a {@link Code}'s value is written to directly. A
+ * code with injection targets isn't searched for in requests; instead, each
+ * target that is already in a request has its value replaced.
+ *
+ * Targets are written as {@code header:<name>}, {@code query:<name>},
+ * {@code body:<name>}, {@code cookie:<name>}, or {@code json:<pointer>}, and
+ * separated by commas. A comma in a name or pointer is written as {@code \,}.
+ */
+public class InjectionTarget {
+
+    public enum Type {
+
+        HEADER("header", null),
+        QUERY("query", HttpParameterType.URL),
+        BODY("body", HttpParameterType.BODY),
+        COOKIE("cookie", HttpParameterType.COOKIE),
+        JSON("json", null);
+
+        private final String label;
+
+        /**
+         * The type of parameter this target sets, or {@code null} for headers
+         * and JSON values.
+         */
+        private final HttpParameterType parameterType;
+
+        private Type(String label, HttpParameterType parameterType) {
+
+            this.label = label;
+            this.parameterType = parameterType;
+
+        }
+
+    }
+
+    private final Type type;
+
+    private final String name;
+
+    /**
+     * {@link #name} parsed as a JSON pointer, for {@link Type#JSON} targets.
+     */
+    private final JsonPointer pointer;
+
+    /**
+     * @param type The kind of header or parameter to set
+     * @param name The name of the header or parameter, or the JSON pointer
+     * @throws IllegalArgumentException If {@code type} is {@link Type#JSON} and
+     *                                  {@code name} isn't a JSON pointer
+     */
+    public InjectionTarget(Type type, String name) throws IllegalArgumentException {
+
+        this.type = type;
+        this.name = name;
+        this.pointer = type == Type.JSON ? new JsonPointer(name) : null;
+
+    }
+
+    public Type getType() {
+
+        return type;
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    /**
+     * Sets this target to a value, if the request has it. JSON targets read the
+     * request's body once, both to find the value and to replace it.
+     *
+     * @param request The request to update
+     * @param value   Gives the value to set. This is only called if the request
+     *                has the target.
+     * @return The updated request, or {@code null} if the request doesn't have
+     *         this header or parameter, or its body doesn't have the value the
+     *         pointer leads to
+     */
+    public HttpRequest apply(HttpRequest request, Supplier<String> value) {
+
+        switch (type) {
+
+            case HEADER:
+                return request.hasHeader(name) ? request.withUpdatedHeader(name, value.get()) : null;
+
+            case JSON:
+                return pointer.replace(request, value);
+
+            default:
+                if (!request.hasParameter(name, type.parameterType))
+                    return null;
+
+                return request.withUpdatedParameters(HttpParameter.parameter(name, value.get(), type.parameterType));
+
+        }
+
+    }
+
+    /**
+     * Parses a comma separated list of targets.
+     *
+     * @param targets The targets, as written by {@link #toString(List)}
+     * @return The parsed targets, which is empty if {@code targets} is blank
+     * @throws IllegalArgumentException If a target isn't recognized
+     * @see LabeledList#parse(String)
+     */
+    public static List<InjectionTarget> parse(String targets) throws IllegalArgumentException {
+
+        List<InjectionTarget> parsed = new ArrayList<>();
+
+        for (String[] entry : LabeledList.parse(targets)) {
+
+            String label = entry[0], name = entry[1];
+
+            Type type = null;
+
+            for (Type t : Type.values()) {
+
+                if (t.label.equalsIgnoreCase(label))
+                    type = t;
+
+            }
+
+            // A name cut short at an unescaped comma leaves the rest as a label
+            if (type == null)
+                throw new IllegalArgumentException("Unknown injection target \"" + label
+                        + "\". Write a comma in a name as \"\\,\".");
+
+            if (name == null || name.isEmpty())
+                throw new IllegalArgumentException("The \"" + type.label + "\" target needs a name, like \""
+                        + type.label + ":name\".");
+
+            parsed.add(new InjectionTarget(type, name));
+
+        }
+
+        return parsed;
+
+    }
+
+    /**
+     * @param targets The targets to write
+     * @return The targets as a comma separated list that {@link #parse(String)}
+     *         accepts
+     */
+    public static String toString(List<InjectionTarget> targets) {
+
+        return LabeledList.toString(targets);
+
+    }
+
+    @Override
+    public String toString() {
+
+        return LabeledList.toString(type.label, name);
+
+    }
+
+}
@@ -0,0 +1,452 @@
+package com.stephensantilli.totp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+/**
+ * A JSON pointer, as defined in RFC 6901, that is found in request bodies by
+ * reading the JSON one byte at a time. Nothing is parsed into objects; the
+ * values the pointer doesn't lead to are only skipped over.
+ *
+ * If the body is an array and the pointer doesn't start with an index, the
+ * pointer is followed in every element of the array. This is how batched
+ * GraphQL requests are sent.
+ */
+public class JsonPointer {
+
+    private final String pointer;
+
+    /**
+     * The pointer's reference tokens, unescaped and encoded as UTF-8 so they
+     * can be compared with keys without decoding them.
+     */
+    private final byte[][] tokens;
+
+    /**
+     * Each token as an array index, or -1 if it isn't one.
+     */
+    private final int[] indexes;
+
+    /**
+     * @param pointer The pointer, like {@code /mfa/code}
+     * @throws IllegalArgumentException If {@code pointer} isn't empty and doesn't
+     *                                  start with {@code /}
+     */
+    public JsonPointer(String pointer) throws IllegalArgumentException {
+
+        if (!pointer.isEmpty() && pointer.charAt(0) != '/')
+            throw new IllegalArgumentException("The JSON pointer \"" + pointer + "\" must start with \"/\".");
+
+        this.pointer = pointer;
+
+        String[] split = pointer.isEmpty() ? new String[0] : pointer.substring(1).split("/", -1);
+
+        this.tokens = new byte[split.length][];
+        this.indexes = new int[split.length];
+
+        for (int i = 0; i < split.length; i++) {
+
+            String token = split[i].replace("~1", "/").replace("~0", "~");
+
+            tokens[i] = token.getBytes(StandardCharsets.UTF_8);
+            indexes[i] = token.matches("0|[1-9][0-9]{0,8}") ? Integer.parseInt(token) : -1;
+
+        }
+
+    }
+
+    /**
+     * Replaces every value this pointer leads to in a request's body with a
+     * string. The body is only read from the request once, and the bytes
+     * between the values are copied from it straight into the new body.
+     *
+     * @param request The request to update
+     * @param value   Gives the string to set, which mustn't need escaping. This
+     *                is only called if the body has the value.
+     * @return The updated request, or {@code null} if the body isn't JSON or
+     *         doesn't have the value
+     */
+    public HttpRequest replace(HttpRequest request, Supplier<String> value) {
+
+        ByteArray body = request.body();
+
+        int start = skipWhitespace(body, 0);
+
+        // Bodies that can't be JSON aren't searched
+        if (start >= body.length() || (body.getByte(start) != '{' && body.getByte(start) != '['))
+            return null;
+
+        int[] spans = find(body);
+
+        if (spans.length == 0)
+            return null;
+
+        byte[] replacement = ("\"" + value.get() + "\"").getBytes(StandardCharsets.UTF_8);
+        int size = body.length();
+
+        for (int s = 0; s < spans.length; s += 2)
+            size += replacement.length - (spans[s + 1] - spans[s]);
+
+        byte[] result = new byte[size];
+        int copied = 0, written = 0;
+
+        for (int s = 0; s < spans.length; s += 2) {
+
+            written = copy(body, copied, spans[s], result, written);
+
+            System.arraycopy(replacement, 0, result, written, replacement.length);
+            written += replacement.length;
+
+            copied = spans[s + 1];
+
+        }
+
+        copy(body, copied, body.length(), result, written);
+
+        // This updates Content-Length as well
+        return request.withBody(ByteArray.byteArray(result));
+
+    }
+
+    /**
+     * Copies {@code json} from {@code from} up to {@code to} into {@code dest}.
+     *
+     * @return The index in {@code dest} just after the copied bytes
+     */
+    private static int copy(ByteArray json, int from, int to, byte[] dest, int destPos) {
+
+        if (to > from)
+            System.arraycopy(json.subArray(from, to).getBytes(), 0, dest, destPos, to - from);
+
+        return destPos + to - from;
+
+    }
+
+    /**
+     * Finds every value this pointer leads to.
+     *
+     * @param json The JSON to search
+     * @return The start and end of each value, in pairs and in order, or an
+     *         empty array if {@code json} isn't valid JSON
+     */
+    public int[] find(ByteArray json) {
+
+        List<Integer> spans = new ArrayList<>();
+
+        try {
+
+            int start = skipWhitespace(json, 0);
+
+            boolean batch = start < json.length() && json.getByte(start) == '['
+                    && tokens.length > 0 && indexes[0] < 0;
+
+            if (batch) {
+
+                int i = skipWhitespace(json, start + 1);
+
+                while (i < json.length() && json.getByte(i) != ']') {
+
+                    i = skipWhitespace(json, locate(json, i, 0, spans));
+                    i = skipWhitespace(json, i < json.length() && json.getByte(i) == ',' ? i + 1 : i);
+
+                }
+
+            } else {
+
+                locate(json, start, 0, spans);
+
+            }
+
+        } catch (IllegalArgumentException e) {
+
+            return new int[0];
+
+        }
+
+        return spans.stream().mapToInt(Integer::intValue).toArray();
+
+    }
+
+    /**
+     * Follows the tokens from {@code depth} on, starting at the value at
+     * {@code pos}, and records the span of the value they lead to.
+     *
+     * @return The index just after the value at {@code pos}
+     * @throws IllegalArgumentException If the JSON is malformed
+     */
+    private int locate(ByteArray json, int pos, int depth, List<Integer> spans) throws IllegalArgumentException {
+
+        if (pos >= json.length())
+            throw new IllegalArgumentException("Unexpected end of JSON.");
+
+        if (depth == tokens.length) {
+
+            int end = skipValue(json, pos);
+
+            spans.add(pos);
+            spans.add(end);
+
+            return end;
+
+        }
+
+        byte first = json.getByte(pos);
+
+        if (first == '{') {
+
+            int i = skipWhitespace(json, pos + 1);
+
+            while (expect(json, i) != '}') {
+
+                int keyEnd = skipString(json, i);
+                boolean matches = keyEquals(json, i + 1, keyEnd - 1, tokens[depth]);
+
+                i = skipWhitespace(json, keyEnd);
+
+                if (expect(json, i) != ':')
+                    throw new IllegalArgumentException("Expected ':' at " + i + ".");
+
+                i = skipWhitespace(json, i + 1);
+                i = matches ? locate(json, i, depth + 1, spans) : skipValue(json, i);
+                i = skipWhitespace(json, i);
+
+                if (expect(json, i) == ',')
+                    i = skipWhitespace(json, i + 1);
+
+            }
+
+            return i + 1;
+
+        }
+
+        if (first == '[') {
+
+            int i = skipWhitespace(json, pos + 1), index = 0;
+
+            while (expect(json, i) != ']') {
+
+                i = index++ == indexes[depth] ? locate(json, i, depth + 1, spans) : skipValue(json, i);
+                i = skipWhitespace(json, i);
+
+                if (expect(json, i) == ',')
+                    i = skipWhitespace(json, i + 1);
+
+            }
+
+            return i + 1;
+
+        }
+
+        return skipValue(json, pos);
+
+    }
+
+    /**
+     * Compares a key, as it is written between its quotes, with a token. Keys
+     * with escapes are decoded first.
+     */
+    private static boolean keyEquals(ByteArray json, int start, int end, byte[] token) {
+
+        boolean escaped = false;
+
+        for (int i = start; i < end && !escaped; i++)
+            escaped = json.getByte(i) == '\\';
+
+        if (escaped) {
+
+            byte[] raw = json.subArray(start, end).getBytes();
+
+            return Arrays.equals(unescape(new String(raw, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8),
+                    token);
+
+        }
+
+        if (end - start != token.length)
+            return false;
+
+        for (int i = 0; i < token.length; i++) {
+
+            if (json.getByte(start + i) != token[i])
+                return false;
+
+        }
+
+        return true;
+
+    }
+
+    private static String unescape(String key) {
+
+        StringBuilder unescaped = new StringBuilder();
+
+        for (int i = 0; i < key.length(); i++) {
+
+            char c = key.charAt(i);
+
+            if (c != '\\' || i + 1 >= key.length()) {
+
+                unescaped.append(c);
+                continue;
+
+            }
+
+            char next = key.charAt(++i);
+
+            switch (next) {
+
+                case 'b':
+                    unescaped.append('\b');
+                    break;
+                case 'f':
+                    unescaped.append('\f');
+                    break;
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 < key.length()) {
+
+                        unescaped.append((char) Integer.parseInt(key.substring(i + 1, i + 5), 16));
+                        i += 4;
+
+                    }
+                    break;
+                default:
+                    unescaped.append(next);
+
+            }
+
+        }
+
+        return unescaped.toString();
+
+    }
+
+    /**
+     * @return The index just after the value starting at {@code pos}
+     * @throws IllegalArgumentException If the JSON is malformed
+     */
+    private static int skipValue(ByteArray json, int pos) throws IllegalArgumentException {
+
+        byte first = expect(json, pos);
+
+        if (first == '"')
+            return skipString(json, pos);
+
+        if (first != '{' && first != '[') {
+
+            int i = pos;
+
+            while (i < json.length() && !isDelimiter(json.getByte(i)))
+                i++;
+
+            if (i == pos)
+                throw new IllegalArgumentException("Expected a value at " + pos + ".");
+
+            return i;
+
+        }
+
+        // Objects and arrays are skipped by counting brackets, so deeply nested
+        // JSON can't overflow the stack
+        int nesting = 0, i = pos;
+
+        do {
+
+            byte b = expect(json, i);
+
+            if (b == '"') {
+
+                i = skipString(json, i);
+                continue;
+
+            }
+
+            if (b == '{' || b == '[')
+                nesting++;
+            else if (b == '}' || b == ']')
+                nesting--;
+
+            i++;
+
+        } while (nesting > 0);
+
+        return i;
+
+    }
+
+    /**
+     * @return The index just after the closing quote of the string starting at
+     *         {@code pos}
+     * @throws IllegalArgumentException If there isn't a string at {@code pos}
+     */
+    private static int skipString(ByteArray json, int pos) throws IllegalArgumentException {
+
+        if (expect(json, pos) != '"')
+            throw new IllegalArgumentException("Expected a string at " + pos + ".");
+
+        for (int i = pos + 1; i < json.length(); i++) {
+
+            byte b = json.getByte(i);
+
+            if (b == '\\')
+                i++;
+            else if (b == '"')
+                return i + 1;
+
+        }
+
+        throw new IllegalArgumentException("Unterminated string at " + pos + ".");
+
+    }
+
+    private static byte expect(ByteArray json, int pos) throws IllegalArgumentException {
+
+        if (pos >= json.length())
+            throw new IllegalArgumentException("Unexpected end of JSON.");
+
+        return json.getByte(pos);
+
+    }
+
+    private static int skipWhitespace(ByteArray json, int pos) {
+
+        while (pos < json.length() && isWhitespace(json.getByte(pos)))
+            pos++;
+
+        return pos;
+
+    }
+
+    private static boolean isWhitespace(byte b) {
+
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+
+    }
+
+    private static boolean isDelimiter(byte b) {
+
+        return isWhitespace(b) || b == ',' || b == '}' || b == ']' || b == ':';
+
+    }
+
+    @Override
+    public String toString() {
+
+        return pointer;
+
+    }
+
+}
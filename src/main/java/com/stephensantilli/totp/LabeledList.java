@@ -0,0 +1,109 @@
+package com.stephensantilli.totp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the comma separated lists that {@link SearchRegion}s and
+ * {@link InjectionTarget}s are set with. Each entry is a label, which may be
+ * followed by {@code :} and a name. JSON pointers and parameter names can
+ * contain commas, so a comma or backslash in a name is written with a
+ * backslash before it.
+ */
+public class LabeledList {
+
+    /**
+     * Splits a list into its entries.
+     *
+     * @param list The list, as written by {@link #toString(List)}
+     * @return Each entry's label and name, in pairs, with a {@code null} name if
+     *         the entry doesn't have one. This is empty if {@code list} is
+     *         blank.
+     * @throws IllegalArgumentException If an entry is empty, or a backslash
+     *                                  isn't followed by a comma or another
+     *                                  backslash
+     */
+    public static List<String[]> parse(String list) throws IllegalArgumentException {
+
+        List<String[]> entries = new ArrayList<>();
+
+        if (list == null || list.isBlank())
+            return entries;
+
+        StringBuilder entry = new StringBuilder();
+
+        for (int i = 0; i <= list.length(); i++) {
+
+            char c = i < list.length() ? list.charAt(i) : ',';
+
+            if (c == '\\') {
+
+                char next = i + 1 < list.length() ? list.charAt(i + 1) : 0;
+
+                if (next != ',' && next != '\\')
+                    throw new IllegalArgumentException("A \"\\\" in \"" + list
+                            + "\" isn't followed by \",\" or \"\\\". Write a comma in a name as \"\\,\".");
+
+                entry.append(next);
+                i++;
+                continue;
+
+            }
+
+            if (c != ',') {
+
+                entry.append(c);
+                continue;
+
+            }
+
+            // Escapes only ever add commas and backslashes, so the first colon
+            // was written as one
+            String written = entry.toString();
+            int separator = written.indexOf(':');
+
+            if (written.isBlank())
+                throw new IllegalArgumentException("\"" + list + "\" has an empty entry.");
+
+            entries.add(new String[] {
+                    separator < 0 ? written.trim() : written.substring(0, separator).trim(),
+                    separator < 0 ? null : written.substring(separator + 1).trim() });
+
+            entry.setLength(0);
+
+        }
+
+        return entries;
+
+    }
+
+    /**
+     * @param label The entry's label
+     * @param name  The entry's name, or {@code null} if it doesn't have one
+     * @return The entry as it is written in a list
+     */
+    public static String toString(String label, String name) {
+
+        if (name == null)
+            return label;
+
+        return label + ":" + name.replace("\\", "\\\\").replace(",", "\\,");
+
+    }
+
+    /**
+     * @param entries The entries to write
+     * @return The entries as a list that {@link #parse(String)} accepts
+     */
+    public static String toString(List<?> entries) {
+
+        List<String> written = new ArrayList<>();
+
+        for (Object entry : entries)
+            written.add(entry.toString());
+
+        return String.join(", ", written);
+
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.stephensantilli.totp;
+
+import java.lang.reflect.UndeclaredThrowableException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Holds one initialized {@link Mac} per thread for a single key and algorithm.
+ * Burp's HTTP threads and the UI timer each get their own instance, so the JCE
+ * provider lookup and HMAC key schedule only happen the first time a thread
+ * generates a code. This is the fallback {@link HmacEngine} for algorithms
+ * without a pure-Java implementation.
+ * 
+ * @see Generator#initMac(String, byte[])
+ */
+public class MacCache implements HmacEngine {
+
+    private final ThreadLocal<Mac> macs;
+
+    public MacCache(String crypto, byte[] key) {
+
+        this.macs = ThreadLocal.withInitial(() -> Generator.initMac(crypto, key));
+
+    }
+
+    @Override
+    public int getMacLength() {
+
+        return get().getMacLength();
+
+    }
+
+    @Override
+    public void doFinal(long counter, byte[] dest, int offset) {
+
+        Mac hmac = get();
+
+        for (int shift = 56; shift >= 0; shift -= 8)
+            hmac.update((byte) (counter >>> shift));
+
+        try {
+
+            hmac.doFinal(dest, offset);
+
+        } catch (ShortBufferException sbe) {
+
+            throw new UndeclaredThrowableException(sbe);
+
+        }
+
+    }
+
+    /**
+     * Gets the calling thread's {@link Mac}. {@link Mac#doFinal(byte[])} resets
+     * the instance, so it is ready to be used again after each code.
+     * 
+     * @return An initialized {@link Mac} that is confined to the calling thread
+     */
+    public Mac get() {
+
+        return macs.get();
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.stephensantilli.totp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for how requests are handled. These are updated from Burp's HTTP
+ * threads, and are logged every minute while verbose logging is enabled.
+ */
+public enum Metrics {
+
+    SEARCHED("Requests searched for placeholders"),
+    MESSAGES_SEARCHED("WebSocket messages searched for placeholders"),
+    PREFILTER_REJECTED("Requests and messages rejected by the pre-filter"),
+    BODY_SKIPPED("Request bodies not searched because of their size"),
+    CHUNKED("Requests copied in chunks because of their size"),
+    TEMPLATE_HITS("Requests whose placeholders were where their template had them"),
+    TEMPLATE_MISSES("Requests whose placeholders had to be searched for"),
+    SCOPE_CACHE_HITS("Custom scope decisions served from the cache"),
+    SCOPE_CACHE_MISSES("Custom scope decisions worked out from the prefixes"),
+    SUITE_SCOPE_CACHE_HITS("Suite scope decisions served from the cache"),
+    SUITE_SCOPE_CACHE_MISSES("Suite scope decisions asked of Burp");
+
+    private final String description;
+
+    private final LongAdder count = new LongAdder();
+
+    private Metrics(String description) {
+
+        this.description = description;
+
+    }
+
+    public void increment() {
+
+        count.increment();
+
+    }
+
+    public long get() {
+
+        return count.sum();
+
+    }
+
+    public String getDescription() {
+
+        return description;
+
+    }
+
+    /**
+     * @return Every counter's description and value, one per line
+     */
+    public static String summary() {
+
+        StringBuilder summary = new StringBuilder();
+
+        for (Metrics metric : values())
+            summary.append(metric.description).append(": ").append(metric.get()).append('\n');
+
+        summary.append("Template hit ratio: ").append(ratio(TEMPLATE_HITS, TEMPLATE_MISSES)).append('\n');
+        summary.append("Custom scope cache hit ratio: ").append(ratio(SCOPE_CACHE_HITS, SCOPE_CACHE_MISSES))
+                .append('\n');
+        summary.append("Suite scope cache hit ratio: ")
+                .append(ratio(SUITE_SCOPE_CACHE_HITS, SUITE_SCOPE_CACHE_MISSES)).append('\n');
+
+        return summary.toString().trim();
+
+    }
+
+    /**
+     * @return {@code hits} as a percentage of {@code hits} and {@code misses}
+     */
+    private static String ratio(Metrics hits, Metrics misses) {
+
+        long total = hits.get() + misses.get();
+
+        return total == 0 ? "n/a" : String.format("%.1f%%", 100.0 * hits.get() / total);
+
+    }
+
+}
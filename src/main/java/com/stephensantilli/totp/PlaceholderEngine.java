@@ -0,0 +1,1194 @@
+package com.stephensantilli.totp;
+
+import static com.stephensantilli.totp.TOTP.CHUNK_LIMIT_SETTING;
+import static com.stephensantilli.totp.TOTP.SKIP_LIMIT_SETTING;
+import static com.stephensantilli.totp.TOTP.logOutput;
+import static com.stephensantilli.totp.TOTP.settings;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+/**
+ * Replaces the literal match strings of every enabled {@link Code} in a single
+ * pass. The match strings are compiled into an Aho-Corasick automaton that is
+ * only rebuilt when the codes change, so the cost of searching a request does
+ * not grow with the number of codes.
+ *
+ * Where match strings overlap, the leftmost match wins, then the longest. If
+ * two codes share a match string, the first one is used.
+ */
+public class PlaceholderEngine {
+
+    /**
+     * Marks the rewritten Content-Length value in a list of matches, in place of
+     * a code's index.
+     */
+    private static final int CONTENT_LENGTH = -1;
+
+    /**
+     * The number of bytes copied at a time from requests that are too large to
+     * copy all at once.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The most templates whose match offsets are remembered at once.
+     */
+    private static final int MAX_TEMPLATES = 1024;
+
+    private volatile Automaton automaton = Automaton.build(List.of());
+
+    /**
+     * Recompiles the automaton from the match strings of the enabled codes. This
+     * must be called whenever a code is added, removed, enabled, disabled, or
+     * has its match string changed.
+     *
+     * @param codes The codes to replace
+     */
+    public void rebuild(List<Code> codes) {
+
+        List<Code> enabled = new ArrayList<>();
+
+        for (Code code : codes) {
+
+            String match = code.getMatch();
+
+            // Codes with injection targets are set directly, not searched for
+            if (code.isEnabled() && code.getTargets().isEmpty() && match != null && !match.isEmpty()
+                    && isLatin1(match))
+                enabled.add(code);
+
+        }
+
+        this.automaton = Automaton.build(enabled);
+
+        logOutput("Compiled " + enabled.size() + " match strings.", true);
+
+    }
+
+    /**
+     * Requests are matched byte by byte, so a match string containing any
+     * character above {@code 0xFF} can never be found.
+     */
+    private static boolean isLatin1(String match) {
+
+        for (int i = 0; i < match.length(); i++) {
+
+            if (match.charAt(i) > 0xFF)
+                return false;
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Replaces every match string in {@code request} with its code's current
+     * value. The request is searched one byte at a time, with each byte treated
+     * as the character of the same value, so nothing is copied unless there is a
+     * match. The result is built with a single copy into an array of the exact
+     * size.
+     *
+     * Codes without any {@link SearchRegion}s are found in one pass over the
+     * whole request, which is skipped if the request doesn't contain the rarest
+     * byte of any of their match strings. Codes with regions are only searched
+     * for in those parts of the request, and only if the request contains the
+     * rarest byte of their match string.
+     *
+     * If the replacements change the length of the body, the value of the
+     * Content-Length header is rewritten in the same copy. Replacements the
+     * same length as their match string leave the headers alone.
+     *
+     * Requests larger than {@link TOTP#CHUNK_LIMIT_SETTING} are copied
+     * {@value #CHUNK_SIZE} bytes at a time, so the only copy of the whole
+     * request is the new one. The bodies of requests larger than
+     * {@link TOTP#SKIP_LIMIT_SETTING} aren't searched at all.
+     *
+     * @param request The request to search
+     * @return The request with all matches replaced, or {@code null} if there
+     *         were none
+     */
+    public byte[] replace(HttpRequest request) {
+
+        Automaton automaton = this.automaton;
+
+        if (automaton.codes.length == 0)
+            return null;
+
+        Metrics.SEARCHED.increment();
+
+        ByteArray content = request.toByteArray();
+
+        int length = content.length(), bodyOffset = request.bodyOffset();
+        int searchEnd = length;
+        boolean chunked = false;
+
+        // The limits are in KB, so smaller requests never reach them
+        if (length > 1024) {
+
+            long skipLimit = 1024L * settings.getInteger(SKIP_LIMIT_SETTING);
+            long chunkLimit = 1024L * settings.getInteger(CHUNK_LIMIT_SETTING);
+
+            if (skipLimit > 0 && length - bodyOffset > skipLimit) {
+
+                searchEnd = bodyOffset;
+                Metrics.BODY_SKIPPED.increment();
+
+            }
+
+            chunked = chunkLimit > 0 && length > chunkLimit;
+
+        }
+
+        Matches found = scanTemplate(automaton, request, content, searchEnd);
+
+        if (automaton.restricted < automaton.codes.length)
+            found = searchRegions(automaton, request, content, searchEnd, found);
+
+        if (found == null)
+            return null;
+
+        if (chunked)
+            Metrics.CHUNKED.increment();
+
+        return splice(automaton, content, bodyOffset, found, chunked);
+
+    }
+
+    /**
+     * Replaces every match string in a binary WebSocket message. Messages don't
+     * have headers or parameters, so codes with {@link SearchRegion}s aren't
+     * searched for.
+     *
+     * @param message The message to search
+     * @return The message with all matches replaced, or {@code null} if there
+     *         were none
+     */
+    public byte[] replace(ByteArray message) {
+
+        Automaton automaton = this.automaton;
+
+        if (automaton.restricted == 0)
+            return null;
+
+        Metrics.MESSAGES_SEARCHED.increment();
+
+        int first = prefilter(automaton, message, message.length());
+
+        if (first < 0)
+            return null;
+
+        Matches found = scan(automaton, message, first, message.length());
+
+        if (found == null)
+            return null;
+
+        // With no headers, there is no Content-Length to update
+        return splice(automaton, message, 0, found, false);
+
+    }
+
+    /**
+     * Replaces every match string in a text WebSocket message. Each character
+     * is matched as the byte of the same value, and characters above
+     * {@code 0xFF} never match, so this finds the same matches as
+     * {@link #replace(ByteArray)} would in the message's Latin-1 bytes.
+     *
+     * @param message The message to search
+     * @return The message with all matches replaced, or {@code null} if there
+     *         were none
+     */
+    public String replace(String message) {
+
+        Automaton automaton = this.automaton;
+
+        if (automaton.restricted == 0)
+            return null;
+
+        Metrics.MESSAGES_SEARCHED.increment();
+
+        int first = automaton.findRare(message);
+
+        if (first < 0) {
+
+            Metrics.PREFILTER_REJECTED.increment();
+            return null;
+
+        }
+
+        int length = message.length();
+
+        // Characters above 0xFF aren't in any match string
+        Matches found = search(automaton, i -> {
+
+            char c = message.charAt(i);
+
+            return c > 0xFF ? -1 : c;
+
+        }, Math.max(0, first - automaton.maxLength + 1), length);
+
+        if (found == null)
+            return null;
+
+        StringBuilder result = new StringBuilder(length);
+        String[] values = new String[automaton.codes.length];
+        int copied = 0;
+
+        for (int m = 0; m < found.count; m += 3) {
+
+            result.append(message, copied, found.matches[m])
+                    .append(value(automaton.codes, values, found.matches[m + 2]));
+            copied = found.matches[m + 1];
+
+        }
+
+        return result.append(message, copied, length).toString();
+
+    }
+
+    /**
+     * Searches {@code content} for the codes without any regions, first trying
+     * the offsets where they were found in the last request with the same
+     * method, host, and path. Intruder and Scanner send many requests built
+     * from one base request, so the placeholders are usually where they were
+     * last time. Requests without a rare byte are rejected before the template
+     * is looked up.
+     *
+     * @return The matches, or {@code null} if there were none
+     */
+    private static Matches scanTemplate(Automaton automaton, HttpRequest request, ByteArray content, int end) {
+
+        int first = prefilter(automaton, content, end);
+
+        if (first < 0)
+            return null;
+
+        String template = request.method() + " " + request.httpService().host() + request.pathWithoutQuery();
+
+        int[] remembered = automaton.templates.get(template);
+
+        if (remembered != null && automaton.verify(content, first, end, remembered)) {
+
+            Metrics.TEMPLATE_HITS.increment();
+
+            Matches matches = new Matches();
+
+            for (int m = 0; m < remembered.length; m += 3)
+                matches.add(remembered[m], remembered[m + 1], remembered[m + 2]);
+
+            return matches;
+
+        }
+
+        // Counted whatever the scan finds, so the hit ratio covers every lookup
+        Metrics.TEMPLATE_MISSES.increment();
+
+        Matches matches = scan(automaton, content, first, end);
+
+        if (matches == null)
+            return null;
+
+        // Forget everything rather than track which templates are still in use
+        if (automaton.templates.size() >= MAX_TEMPLATES)
+            automaton.templates.clear();
+
+        automaton.templates.put(template, Arrays.copyOf(matches.matches, matches.count));
+
+        return matches;
+
+    }
+
+    /**
+     * Finds the first rare byte in {@code content}, up to {@code end}.
+     *
+     * @return The index of the first rare byte, or -1 if there isn't one or
+     *         there are no codes without regions
+     */
+    private static int prefilter(Automaton automaton, ByteArray content, int end) {
+
+        if (automaton.restricted == 0)
+            return -1;
+
+        int first = automaton.findRare(content, end);
+
+        if (first < 0)
+            Metrics.PREFILTER_REJECTED.increment();
+
+        return first;
+
+    }
+
+    /**
+     * Searches {@code content}, up to {@code end}, for the codes without any
+     * regions.
+     *
+     * @param first The index of the first rare byte in {@code content}
+     * @return The matches, or {@code null} if there were none
+     */
+    private static Matches scan(Automaton automaton, ByteArray content, int first, int end) {
+
+        // Every match contains a rare byte, so none can start any earlier
+        return search(automaton, content, Math.max(0, first - automaton.maxLength + 1), end);
+
+    }
+
+    /**
+     * Runs the automaton over {@code content} from {@code from} up to
+     * {@code end}.
+     *
+     * @return The matches, or {@code null} if there were none
+     */
+    private static Matches search(Automaton automaton, ByteArray content, int from, int end) {
+
+        return search(automaton, i -> content.getByte(i) & 0xFF, from, end);
+
+    }
+
+    /**
+     * Runs the automaton over {@code input} from {@code from} up to
+     * {@code end}. Requests and text messages are both searched here, so they
+     * always choose the same matches.
+     *
+     * @return The matches, or {@code null} if there were none
+     */
+    private static Matches search(Automaton automaton, Input input, int from, int end) {
+
+        Matches matches = null;
+
+        int length = end, state = 0;
+        int pendingStart = -1, pendingEnd = -1, pendingCode = -1;
+
+        for (int i = from; i < length; i++) {
+
+            int b = input.get(i);
+
+            // No match string contains the character, so no match can span it
+            state = b < 0 ? 0 : automaton.next(state, (byte) b);
+
+            // The longest match ending here is also the one that starts first
+            int terminal = automaton.code[state] >= 0 ? state : automaton.output[state];
+
+            if (terminal > 0) {
+
+                int start = i - automaton.depth[terminal] + 1;
+
+                // Matches are found in order of their end, so an equal start means
+                // a longer match
+                if (pendingStart < 0 || start <= pendingStart) {
+
+                    pendingStart = start;
+                    pendingEnd = i + 1;
+                    pendingCode = automaton.code[terminal];
+
+                }
+
+            }
+
+            // Commit the pending match once no later match can start before it
+            if (pendingStart >= 0 && (i + 1 - automaton.depth[state] > pendingStart || i == length - 1)) {
+
+                if (matches == null)
+                    matches = new Matches();
+
+                matches.add(pendingStart, pendingEnd, pendingCode);
+
+                // Resume the search at the end of the match
+                i = pendingEnd - 1;
+                state = 0;
+                pendingStart = -1;
+
+            }
+
+        }
+
+        return matches;
+
+    }
+
+    /**
+     * Searches the regions of each code that has them, and merges the results
+     * with {@code matches}.
+     *
+     * @return The matches, or {@code null} if there were none
+     */
+    private static Matches searchRegions(Automaton automaton, HttpRequest request, ByteArray content, int end,
+            Matches matches) {
+
+        // Regions can mean parsing every parameter, so they aren't worked out
+        // for codes whose rarest byte isn't in the request
+        boolean[] present = automaton.findRegionRare(content, end);
+
+        if (present == null) {
+
+            // Otherwise it was already counted by prefilter()
+            if (automaton.restricted == 0)
+                Metrics.PREFILTER_REJECTED.increment();
+
+            return matches;
+
+        }
+
+        boolean added = false;
+
+        for (int c = automaton.restricted; c < automaton.codes.length; c++) {
+
+            byte[] match = automaton.patterns[c];
+
+            if (!present[automaton.rarestBytes[c] & 0xFF])
+                continue;
+
+            for (SearchRegion region : automaton.codes[c].getRegions()) {
+
+                int[] spans = region.find(request, content);
+
+                for (int s = 0; s < spans.length; s += 2) {
+
+                    for (int i = spans[s]; i <= Math.min(spans[s + 1], end) - match.length; i++) {
+
+                        if (!startsWith(content, i, match))
+                            continue;
+
+                        if (matches == null)
+                            matches = new Matches();
+
+                        matches.add(i, i + match.length, c);
+                        added = true;
+
+                        i += match.length - 1;
+
+                    }
+
+                }
+
+            }
+
+        }
+
+        if (added)
+            matches.resolve();
+
+        return matches;
+
+    }
+
+    private static boolean startsWith(ByteArray content, int offset, byte[] match) {
+
+        for (int i = 0; i < match.length; i++) {
+
+            if (content.getByte(offset + i) != match[i])
+                return false;
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Copies {@code content} into a new array with every match replaced.
+     */
+    private static byte[] splice(Automaton automaton, ByteArray content, int bodyOffset, Matches found,
+            boolean chunked) {
+
+        int[] matches = found.matches;
+        int count = found.count, length = content.length();
+
+        String[] values = new String[automaton.codes.length];
+        int size = length, bodyChange = 0;
+
+        for (int m = 0; m < count; m += 3) {
+
+            int start = matches[m], end = matches[m + 1];
+            int change = value(automaton.codes, values, matches[m + 2]).length() - (end - start);
+
+            size += change;
+
+            // A match across the end of the headers has its value put in the
+            // headers, so it only removes bytes from the body
+            if (start >= bodyOffset)
+                bodyChange += change;
+            else if (end > bodyOffset)
+                bodyChange -= end - bodyOffset;
+
+        }
+
+        byte[] contentLength = null;
+
+        if (bodyChange != 0) {
+
+            int[] range = SearchRegion.findHeaderValues(content, bodyOffset, "Content-Length");
+
+            if (range.length > 0) {
+
+                contentLength = Integer.toString(length - bodyOffset + bodyChange)
+                        .getBytes(StandardCharsets.US_ASCII);
+
+                int kept = 0, insert = -1;
+
+                // The header is rewritten as a whole, so drop any match inside it
+                for (int m = 0; m < count; m += 3) {
+
+                    int start = matches[m], end = matches[m + 1];
+
+                    if (start < range[1] && end > range[0]) {
+
+                        size -= values[matches[m + 2]].length() - (end - start);
+                        continue;
+
+                    }
+
+                    if (insert < 0 && start >= range[1])
+                        insert = kept;
+
+                    matches[kept++] = start;
+                    matches[kept++] = end;
+                    matches[kept++] = matches[m + 2];
+
+                }
+
+                if (insert < 0)
+                    insert = kept;
+
+                if (kept + 3 > matches.length)
+                    matches = Arrays.copyOf(matches, kept + 3);
+
+                System.arraycopy(matches, insert, matches, insert + 3, kept - insert);
+
+                matches[insert] = range[0];
+                matches[insert + 1] = range[1];
+                matches[insert + 2] = CONTENT_LENGTH;
+
+                count = kept + 3;
+                size += contentLength.length - (range[1] - range[0]);
+
+            }
+
+        }
+
+        byte[] source = chunked ? null : content.getBytes(), result = new byte[size];
+        int copied = 0, written = 0;
+
+        for (int m = 0; m < count; m += 3) {
+
+            int start = matches[m], end = matches[m + 1];
+
+            copy(content, source, copied, result, written, start - copied);
+            written += start - copied;
+
+            if (matches[m + 2] == CONTENT_LENGTH) {
+
+                System.arraycopy(contentLength, 0, result, written, contentLength.length);
+                written += contentLength.length;
+
+            } else {
+
+                String value = values[matches[m + 2]];
+
+                // Codes are only ever ASCII digits
+                for (int k = 0; k < value.length(); k++)
+                    result[written++] = (byte) value.charAt(k);
+
+            }
+
+            copied = end;
+
+        }
+
+        copy(content, source, copied, result, written, length - copied);
+
+        return result;
+
+    }
+
+    /**
+     * Copies part of {@code content} into {@code dest}. If {@code source} is
+     * {@code null}, the part is read {@value #CHUNK_SIZE} bytes at a time.
+     *
+     * @param source The bytes of {@code content}, or {@code null} to copy it in
+     *               chunks
+     */
+    private static void copy(ByteArray content, byte[] source, int from, byte[] dest, int destPos, int length) {
+
+        if (source != null) {
+
+            System.arraycopy(source, from, dest, destPos, length);
+            return;
+
+        }
+
+        for (int done = 0; done < length; done += CHUNK_SIZE) {
+
+            int chunk = Math.min(CHUNK_SIZE, length - done);
+
+            System.arraycopy(content.subArray(from + done, from + done + chunk).getBytes(), 0, dest, destPos + done,
+                    chunk);
+
+        }
+
+    }
+
+    /**
+     * Gets a code's value, generating it the first time it is needed for the
+     * current request. This is shared with {@link RegexEngine}.
+     */
+    static String value(Code[] codes, String[] values, int index) {
+
+        if (values[index] == null) {
+
+            Code code = codes[index];
+
+            values[index] = code.generateCode();
+
+            logOutput("[" + code.getName() + "]: Replaced content matching \"" + code.getMatch() + "\".", false);
+
+        }
+
+        return values[index];
+
+    }
+
+    /**
+     * The content being searched, read one unsigned byte at a time.
+     */
+    @FunctionalInterface
+    private interface Input {
+
+        /**
+         * @return The byte at {@code index}, or -1 if it is a character that no
+         *         match string contains
+         */
+        int get(int index);
+
+    }
+
+    /**
+     * The start, end, and code index of each match, in order.
+     */
+    private static final class Matches {
+
+        private int[] matches = new int[3 * 4];
+
+        private int count;
+
+        private void add(int start, int end, int code) {
+
+            if (count == matches.length)
+                matches = Arrays.copyOf(matches, count * 2);
+
+            matches[count++] = start;
+            matches[count++] = end;
+            matches[count++] = code;
+
+        }
+
+        /**
+         * Sorts the matches and drops any that overlap an earlier one. Where two
+         * start together, the longer one is kept.
+         */
+        private void resolve() {
+
+            Integer[] order = new Integer[count / 3];
+
+            for (int i = 0; i < order.length; i++)
+                order[i] = i * 3;
+
+            Arrays.sort(order, (a, b) -> matches[a] != matches[b] ? Integer.compare(matches[a], matches[b])
+                    : Integer.compare(matches[b + 1], matches[a + 1]));
+
+            int[] resolved = new int[count];
+            int kept = 0, end = 0;
+
+            for (int m : order) {
+
+                if (matches[m] < end)
+                    continue;
+
+                resolved[kept++] = matches[m];
+                resolved[kept++] = matches[m + 1];
+                resolved[kept++] = matches[m + 2];
+
+                end = matches[m + 1];
+
+            }
+
+            this.matches = resolved;
+            this.count = kept;
+
+        }
+
+    }
+
+    /**
+     * An immutable Aho-Corasick automaton over the bytes of a set of match
+     * strings. Each state's transitions are stored as sorted parallel arrays.
+     */
+    private static final class Automaton {
+
+        private final Code[] codes;
+
+        /**
+         * The index in {@link #codes} of the first code with
+         * {@link SearchRegion}s. Codes before this are in the automaton, and
+         * codes from here on aren't.
+         */
+        private int restricted;
+
+        /**
+         * The bytes of each code's match string.
+         */
+        private byte[][] patterns;
+
+        private final byte[][] labels;
+
+        private final int[][] targets;
+
+        private final int[] fail, depth;
+
+        /**
+         * The index in {@link #codes} of the match string ending at each state,
+         * or -1.
+         */
+        private final int[] code;
+
+        /**
+         * The nearest state along each state's failure links where a match
+         * string ends, or 0 if there isn't one.
+         */
+        private final int[] output;
+
+        /**
+         * The least common byte of each match string, as ranked by
+         * {@link #rarity(byte)}.
+         */
+        private final boolean[] rare = new boolean[256];
+
+        /**
+         * The number of bytes in each code's match string that are in
+         * {@link #rare}.
+         */
+        private int[] rareCounts;
+
+        /**
+         * The least common byte of each code's match string.
+         */
+        private byte[] rarestBytes;
+
+        /**
+         * The least common byte of the match string of each code with
+         * {@link SearchRegion}s.
+         */
+        private final boolean[] regionRare = new boolean[256];
+
+        /**
+         * The number of bytes in {@link #regionRare}.
+         */
+        private int regionRareCount;
+
+        private int maxLength;
+
+        /**
+         * The matches last found in requests with each method, host, and path,
+         * as {@link Matches} stores them. This is thrown away with the
+         * automaton, since a rebuild can change which codes the indexes refer
+         * to.
+         */
+        private final Map<String, int[]> templates = new ConcurrentHashMap<>();
+
+        private Automaton(Code[] codes, byte[][] labels, int[][] targets, int[] fail, int[] depth, int[] code,
+                int[] output) {
+
+            this.codes = codes;
+            this.labels = labels;
+            this.targets = targets;
+            this.fail = fail;
+            this.depth = depth;
+            this.code = code;
+            this.output = output;
+
+        }
+
+        private static Automaton build(List<Code> enabled) {
+
+            List<TreeMap<Byte, Integer>> trie = new ArrayList<>();
+            List<Integer> depths = new ArrayList<>(), ends = new ArrayList<>();
+            List<Code> codes = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            Set<Byte> rare = new HashSet<>();
+            int maxLength = 0;
+
+            trie.add(new TreeMap<>());
+            depths.add(0);
+            ends.add(-1);
+
+            for (Code c : enabled) {
+
+                String match = c.getMatch();
+
+                if (!c.getRegions().isEmpty() || !seen.add(match))
+                    continue;
+
+                int state = 0;
+
+                for (int i = 0; i < match.length(); i++) {
+
+                    byte b = (byte) match.charAt(i);
+
+                    Integer next = trie.get(state).get(b);
+
+                    if (next == null) {
+
+                        next = trie.size();
+                        trie.get(state).put(b, next);
+                        trie.add(new TreeMap<>());
+                        depths.add(i + 1);
+                        ends.add(-1);
+
+                    }
+
+                    state = next;
+
+                }
+
+                ends.set(state, codes.size());
+                codes.add(c);
+                rare.add((byte) match.charAt(rarest(match)));
+                maxLength = Math.max(maxLength, match.length());
+
+            }
+
+            int restricted = codes.size();
+
+            // Codes with regions are searched for separately, after the others
+            for (Code c : enabled) {
+
+                if (!c.getRegions().isEmpty())
+                    codes.add(c);
+
+            }
+
+            byte[][] patterns = new byte[codes.size()][];
+
+            for (int i = 0; i < patterns.length; i++)
+                patterns[i] = codes.get(i).getMatch().getBytes(StandardCharsets.ISO_8859_1);
+
+            int size = trie.size();
+
+            byte[][] labels = new byte[size][];
+            int[][] targets = new int[size][];
+            int[] depth = new int[size], code = new int[size], fail = new int[size], output = new int[size];
+
+            for (int s = 0; s < size; s++) {
+
+                TreeMap<Byte, Integer> edges = trie.get(s);
+
+                labels[s] = new byte[edges.size()];
+                targets[s] = new int[edges.size()];
+
+                int i = 0;
+
+                for (Map.Entry<Byte, Integer> edge : edges.entrySet()) {
+
+                    labels[s][i] = edge.getKey();
+                    targets[s][i++] = edge.getValue();
+
+                }
+
+                depth[s] = depths.get(s);
+                code[s] = ends.get(s);
+
+            }
+
+            Automaton automaton = new Automaton(codes.toArray(new Code[0]), labels, targets, fail, depth, code,
+                    output);
+
+            for (byte b : rare)
+                automaton.rare[b & 0xFF] = true;
+
+            automaton.maxLength = maxLength;
+            automaton.restricted = restricted;
+            automaton.patterns = patterns;
+            automaton.rareCounts = new int[restricted];
+            automaton.rarestBytes = new byte[patterns.length];
+
+            for (int i = 0; i < patterns.length; i++) {
+
+                automaton.rarestBytes[i] = patterns[i][rarest(codes.get(i).getMatch())];
+
+                if (i >= restricted && !automaton.regionRare[automaton.rarestBytes[i] & 0xFF]) {
+
+                    automaton.regionRare[automaton.rarestBytes[i] & 0xFF] = true;
+                    automaton.regionRareCount++;
+
+                }
+
+            }
+
+            for (int i = 0; i < restricted; i++) {
+
+                for (byte b : patterns[i]) {
+
+                    if (automaton.rare[b & 0xFF])
+                        automaton.rareCounts[i]++;
+
+                }
+
+            }
+
+            // Breadth first, so each state's failure link is resolved before its
+            // children need it
+            int[] queue = new int[size];
+            int head = 0, tail = 0;
+
+            queue[tail++] = 0;
+
+            while (head < tail) {
+
+                int s = queue[head++];
+
+                for (int i = 0; i < labels[s].length; i++) {
+
+                    int child = targets[s][i];
+
+                    // A child of the root always fails back to the root
+                    fail[child] = s == 0 ? 0 : automaton.next(fail[s], labels[s][i]);
+
+                    queue[tail++] = child;
+
+                }
+
+                output[s] = code[fail[s]] >= 0 ? fail[s] : output[fail[s]];
+
+            }
+
+            return automaton;
+
+        }
+
+        /**
+         * @param content The content to search
+         * @param end     The index to stop searching at
+         * @return The index of the first byte in {@code content} that is the
+         *         rarest byte of a match string, or -1 if there isn't one
+         */
+        private int findRare(ByteArray content, int end) {
+
+            for (int i = 0; i < end; i++) {
+
+                if (rare[content.getByte(i) & 0xFF])
+                    return i;
+
+            }
+
+            return -1;
+
+        }
+
+        /**
+         * Finds which of the bytes in {@link #regionRare} are in
+         * {@code content}, stopping once all of them have been seen.
+         *
+         * @param content The content to search
+         * @param end     The index to stop searching at
+         * @return Whether each byte is in {@code content}, indexed by its
+         *         unsigned value, or {@code null} if none of them are
+         */
+        private boolean[] findRegionRare(ByteArray content, int end) {
+
+            boolean[] present = new boolean[256];
+            int found = 0;
+
+            for (int i = 0; i < end && found < regionRareCount; i++) {
+
+                int b = content.getByte(i) & 0xFF;
+
+                if (regionRare[b] && !present[b]) {
+
+                    present[b] = true;
+                    found++;
+
+                }
+
+            }
+
+            return found == 0 ? null : present;
+
+        }
+
+        /**
+         * @param message The text to search
+         * @return The index of the first character in {@code message} that is
+         *         the rarest byte of a match string, or -1 if there isn't one
+         */
+        private int findRare(String message) {
+
+            for (int i = 0, length = message.length(); i < length; i++) {
+
+                char c = message.charAt(i);
+
+                if (c <= 0xFF && rare[c])
+                    return i;
+
+            }
+
+            return -1;
+
+        }
+
+        /**
+         * Checks whether a full scan of {@code content} would find exactly
+         * {@code remembered}. Every match contains a rare byte, so if each
+         * remembered match is still there and there are no rare bytes outside
+         * of them, the only other matches could be ones overlapping them. Those
+         * are ruled out by running the automaton over a few bytes around each
+         * one.
+         *
+         * @param content    The content to search
+         * @param first      The index of the first rare byte in {@code content}
+         * @param end        The index the search stops at
+         * @param remembered The matches found last time
+         * @return Whether {@code remembered} are the matches in {@code content}
+         */
+        private boolean verify(ByteArray content, int first, int end, int[] remembered) {
+
+            int expected = 0;
+
+            for (int m = 0; m < remembered.length; m += 3) {
+
+                int start = remembered[m];
+                byte[] pattern = patterns[remembered[m + 2]];
+
+                if (start + pattern.length > end)
+                    return false;
+
+                for (int i = 0; i < pattern.length; i++) {
+
+                    if (content.getByte(start + i) != pattern[i])
+                        return false;
+
+                }
+
+                expected += rareCounts[remembered[m + 2]];
+
+            }
+
+            int found = 0;
+
+            // There are no rare bytes before the first one
+            for (int i = first; i < end; i++) {
+
+                if (rare[content.getByte(i) & 0xFF] && ++found > expected)
+                    return false;
+
+            }
+
+            if (found != expected)
+                return false;
+
+            int previousEnd = 0;
+
+            for (int m = 0; m < remembered.length; m += 3) {
+
+                int start = remembered[m];
+
+                // A competing match has to start within maxLength of this one,
+                // and the search would commit to one of them within maxLength
+                // bytes of its start
+                Matches local = search(this, content, Math.max(previousEnd, start - maxLength + 1),
+                        Math.min(end, remembered[m + 1] + maxLength));
+
+                if (local == null || local.matches[0] != start || local.matches[1] != remembered[m + 1])
+                    return false;
+
+                previousEnd = remembered[m + 1];
+
+            }
+
+            return true;
+
+        }
+
+        /**
+         * @return The index of the least common byte in {@code match}
+         */
+        private static int rarest(String match) {
+
+            int best = 0;
+
+            for (int i = 1; i < match.length(); i++) {
+
+                if (rarity((byte) match.charAt(i)) < rarity((byte) match.charAt(best)))
+                    best = i;
+
+            }
+
+            return best;
+
+        }
+
+        /**
+         * Roughly ranks how often a byte appears in HTTP requests, from 0 for the
+         * rarest to 6 for the most common.
+         */
+        private static int rarity(byte b) {
+
+            int c = b & 0xFF;
+
+            if (c >= 0x80 || (c < 0x20 && c != '\t' && c != '\r' && c != '\n') || c == 0x7F)
+                return 0;
+
+            if ("_$^`|~!*<>[]{}\\#@".indexOf(c) >= 0)
+                return 1;
+
+            if (c >= 'A' && c <= 'Z')
+                return 2;
+
+            if (c >= '0' && c <= '9')
+                return 4;
+
+            if (c >= 'a' && c <= 'z')
+                return 5;
+
+            if (c == ' ' || c == '\r' || c == '\n')
+                return 6;
+
+            // The rest of the punctuation used in URLs, headers, and bodies
+            return 3;
+
+        }
+
+        /**
+         * Follows the transition for {@code b}, falling back along failure links
+         * when there isn't one.
+         */
+        private int next(int state, byte b) {
+
+            while (true) {
+
+                int i = Arrays.binarySearch(labels[state], b);
+
+                if (i >= 0)
+                    return targets[state][i];
+
+                if (state == 0)
+                    return 0;
+
+                state = fail[state];
+
+            }
+
+        }
+
+    }
+
+}
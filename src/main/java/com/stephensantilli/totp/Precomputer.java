@@ -0,0 +1,129 @@
+package com.stephensantilli.totp;
+
+import static com.stephensantilli.totp.TOTP.PRECOMPUTE_LEAD_SETTING;
+import static com.stephensantilli.totp.TOTP.PRECOMPUTE_STEPS_SETTING;
+import static com.stephensantilli.totp.TOTP.logError;
+import static com.stephensantilli.totp.TOTP.settings;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes each enabled code's upcoming values on a background thread shortly
+ * before its time step rolls over. Without this, every HTTP thread that sends a
+ * request right after a rollover would compute the new code at the same moment.
+ * 
+ * @see Code#precompute(int)
+ */
+public class Precomputer {
+
+    /**
+     * The longest the scheduler will sleep, so that new codes and changed
+     * settings are picked up quickly.
+     */
+    private static final long MAX_DELAY_MILLIS = 1000;
+
+    private static final long MIN_DELAY_MILLIS = 10;
+
+    private final List<Code> codes;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param codes The codes to pre-compute. This list is read from a background
+     *              thread, so it must be safe to iterate concurrently.
+     */
+    public Precomputer(List<Code> codes) {
+
+        this.codes = codes;
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+
+            Thread thread = new Thread(r, "TOTP pre-computation");
+            thread.setDaemon(true);
+
+            return thread;
+
+        });
+
+    }
+
+    public void start() {
+
+        executor.execute(this::run);
+
+    }
+
+    public void stop() {
+
+        executor.shutdownNow();
+
+    }
+
+    /**
+     * Pre-computes any code whose rollover is within the lead time, then
+     * schedules itself for the next rollover that needs it. The lead time and
+     * number of steps are read from the settings panel each time. Codes without
+     * a positive duration are skipped, and the next run is always scheduled,
+     * even if this one fails.
+     * 
+     * @see TOTP#PRECOMPUTE_LEAD_SETTING
+     * @see TOTP#PRECOMPUTE_STEPS_SETTING
+     */
+    private void run() {
+
+        // Read from the same clock as the codes, so the boundaries are the ones
+        // Code#precompute steps across
+        long now = Generator.getClock().epochMilli(), nextRun = now + MAX_DELAY_MILLIS;
+
+        try {
+
+            long leadSetting = Math.max(0, settings.getInteger(PRECOMPUTE_LEAD_SETTING));
+            int steps = Math.max(1, settings.getInteger(PRECOMPUTE_STEPS_SETTING));
+
+            for (Code code : codes) {
+
+                if (!code.isEnabled() || code.getDuration() < 1)
+                    continue;
+
+                try {
+
+                    long period = code.getDuration() * 1000L;
+                    long boundary = (now / period + 1) * period;
+
+                    // Leave at least half of each step between runs
+                    long lead = Math.min(leadSetting, period / 2);
+
+                    if (boundary - now <= lead) {
+
+                        code.precompute(steps);
+                        boundary += period;
+
+                    }
+
+                    nextRun = Math.min(nextRun, boundary - lead);
+
+                } catch (Exception e) {
+
+                    logError("Unable to pre-compute \"" + code.getName() + "\": " + e.getMessage(), false);
+
+                }
+
+            }
+
+        } catch (Exception e) {
+
+            logError("Unable to pre-compute codes: " + e.getMessage(), false);
+
+        } finally {
+
+            if (!executor.isShutdown())
+                executor.schedule(this::run, Math.max(MIN_DELAY_MILLIS, nextRun - now), TimeUnit.MILLISECONDS);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.stephensantilli.totp;
+
+import static com.stephensantilli.totp.TOTP.logError;
+import static com.stephensantilli.totp.TOTP.logOutput;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Replaces the regex match strings of every enabled {@link Code}. Where
+ * possible, every code's {@link Code#getPattern()} is combined into a single
+ * alternation of named groups, so one pass over the request finds every match
+ * and which code it belongs to. Patterns that use backreferences can't be
+ * combined, since their group numbers would change, so those fall back to
+ * searching with each code's pattern in turn.
+ *
+ * Codes are always inserted literally, so they are never read as group
+ * references. Each code's pattern may only run for its
+ * {@link Code#getRegexTimeout()}; a code whose pattern runs out of time is
+ * passed to the timeout handler and skipped.
+ */
+public class RegexEngine {
+
+    private static final String GROUP_PREFIX = "totpCode";
+
+    private static final Pattern BACKREFERENCE = Pattern.compile("\\\\([1-9]|k<)");
+
+    /**
+     * The characters each pattern is tested against by
+     * {@link #analyze(Pattern, int)}, in addition to the ones in the pattern.
+     */
+    private static final String PROBE_CHARS = "a0 _-";
+
+    private static final int PROBE_LENGTH = 5000;
+
+    private volatile Compiled compiled = new Compiled(new Code[0], null);
+
+    private final Consumer<Code> timeoutHandler;
+
+    /**
+     * @param timeoutHandler Called with each code whose pattern runs out of time.
+     *                       This is called from the thread searching the
+     *                       request.
+     */
+    public RegexEngine(Consumer<Code> timeoutHandler) {
+
+        this.timeoutHandler = timeoutHandler;
+
+    }
+
+    /**
+     * Recombines the patterns of the enabled codes. This must be called whenever
+     * a code is added, removed, enabled, disabled, or has its match string
+     * changed.
+     *
+     * @param codes The codes to replace
+     */
+    public void rebuild(List<Code> codes) {
+
+        List<Code> enabled = new ArrayList<>();
+
+        for (Code code : codes) {
+
+            // Codes with injection targets are set directly, not searched for
+            if (!code.isEnabled() || !code.getTargets().isEmpty())
+                continue;
+
+            if (code.getPattern() == null)
+                logOutput("[" + code.getName() + "]: \"" + code.getMatch() + "\" is not a valid regex.", true);
+            else
+                enabled.add(code);
+
+        }
+
+        Code[] array = enabled.toArray(new Code[0]);
+
+        this.compiled = new Compiled(array, combine(array));
+
+        logOutput("Compiled " + array.length + " regex match strings"
+                + (compiled.combined == null && array.length > 0 ? " separately." : "."), true);
+
+    }
+
+    /**
+     * Replaces every match of every code's pattern in {@code content} with that
+     * code's current value.
+     *
+     * @param content The content to search
+     * @return The content with all matches replaced, or {@code null} if there
+     *         were none
+     */
+    public String replace(String content) {
+
+        Compiled compiled = this.compiled;
+        String[] values = new String[compiled.codes.length];
+
+        if (compiled.combined != null) {
+
+            try {
+
+                return replaceCombined(compiled, content, values);
+
+            } catch (DeadlineCharSequence.TimeoutException e) {
+
+                // Search again with each pattern to find the one that's too slow
+                logOutput("Combined regex timed out, searching with each pattern instead...", true);
+
+            }
+
+        }
+
+        String result = content;
+
+        for (int i = 0; i < compiled.codes.length; i++) {
+
+            Code code = compiled.codes[i];
+
+            try {
+
+                String replaced = replace(code.getPattern(), result, compiled.codes, values, i);
+
+                if (replaced != null)
+                    result = replaced;
+
+            } catch (DeadlineCharSequence.TimeoutException e) {
+
+                logError("[" + code.getName() + "]: \"" + code.getMatch() + "\" took longer than "
+                        + code.getRegexTimeout() + " ms to search a request.", false);
+
+                timeoutHandler.accept(code);
+
+            }
+
+        }
+
+        return result == content ? null : result;
+
+    }
+
+    /**
+     * Searches with the combined pattern, which may run for as long as all of
+     * the codes' timeouts put together.
+     */
+    private static String replaceCombined(Compiled compiled, String content, String[] values) {
+
+        Matcher matcher = compiled.combined.matcher(new DeadlineCharSequence(content, compiled.timeoutNanos));
+
+        if (!matcher.find())
+            return null;
+
+        StringBuilder result = new StringBuilder(content.length());
+        int copied = 0;
+
+        do {
+
+            int index = 0;
+
+            while (matcher.start(GROUP_PREFIX + index) < 0)
+                index++;
+
+            result.append(content, copied, matcher.start())
+                    .append(PlaceholderEngine.value(compiled.codes, values, index));
+            copied = matcher.end();
+
+        } while (matcher.find());
+
+        return result.append(content, copied, content.length()).toString();
+
+    }
+
+    /**
+     * Replaces every match of a single code's pattern, within that code's
+     * timeout.
+     *
+     * @return The content with all matches replaced, or {@code null} if there
+     *         were none
+     */
+    private static String replace(Pattern pattern, String content, Code[] codes, String[] values, int index) {
+
+        long timeout = TimeUnit.MILLISECONDS.toNanos(codes[index].getRegexTimeout());
+
+        Matcher matcher = pattern.matcher(new DeadlineCharSequence(content, timeout));
+
+        if (!matcher.find())
+            return null;
+
+        String value = PlaceholderEngine.value(codes, values, index);
+
+        StringBuilder result = new StringBuilder(content.length());
+        int copied = 0;
+
+        do {
+
+            result.append(content, copied, matcher.start()).append(value);
+            copied = matcher.end();
+
+        } while (matcher.find());
+
+        return result.append(content, copied, content.length()).toString();
+
+    }
+
+    /**
+     * Checks whether a pattern is likely to backtrack catastrophically, by
+     * searching long runs of the characters it mentions, and a few common ones,
+     * that end in a character it is unlikely to expect. This can take up to
+     * {@code timeoutMillis} for each test string, so it shouldn't be run on the
+     * EDT.
+     *
+     * @param pattern       The pattern to check
+     * @param timeoutMillis How long each test string may be searched for
+     * @return A warning describing the test string that took too long, or
+     *         {@code null} if none did
+     */
+    public static String analyze(Pattern pattern, int timeoutMillis) {
+
+        Set<Character> chars = new LinkedHashSet<>();
+
+        for (char c : (pattern.pattern() + PROBE_CHARS).toCharArray()) {
+
+            if (c >= ' ' && c <= '~')
+                chars.add(c);
+
+        }
+
+        long timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        for (char c : chars) {
+
+            // A newer check has replaced this one
+            if (Thread.currentThread().isInterrupted())
+                return null;
+
+            String probe = String.valueOf(c).repeat(PROBE_LENGTH) + '\u0000';
+
+            try {
+
+                pattern.matcher(new DeadlineCharSequence(probe, timeout)).find();
+
+            } catch (DeadlineCharSequence.TimeoutException e) {
+
+                return "This regex took longer than " + timeoutMillis + " ms to search a run of '" + c
+                        + "' characters, and may be very slow on some requests.";
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Combines each code's pattern into one alternation, with each alternative
+     * in a group named after its index.
+     *
+     * @return The combined pattern, or {@code null} if the patterns can't be
+     *         safely combined
+     */
+    private static Pattern combine(Code[] codes) {
+
+        if (codes.length == 0)
+            return null;
+
+        StringBuilder regex = new StringBuilder();
+        int groups = 0;
+
+        for (int i = 0; i < codes.length; i++) {
+
+            Pattern pattern = codes[i].getPattern();
+
+            if (BACKREFERENCE.matcher(pattern.pattern()).find())
+                return null;
+
+            if (i > 0)
+                regex.append('|');
+
+            regex.append("(?<").append(GROUP_PREFIX).append(i).append('>').append(pattern.pattern()).append(')');
+            groups += pattern.matcher("").groupCount() + 1;
+
+        }
+
+        try {
+
+            Pattern combined = Pattern.compile(regex.toString());
+
+            // A pattern that ends in a comment or an unbalanced group could
+            // swallow the groups after it
+            if (combined.matcher("").groupCount() != groups)
+                return null;
+
+            return combined;
+
+        } catch (PatternSyntaxException e) {
+
+            return null;
+
+        }
+
+    }
+
+    /**
+     * The enabled codes with valid patterns, and their combined pattern if
+     * there is one.
+     */
+    private static final class Compiled {
+
+        private final Code[] codes;
+
+        private final Pattern combined;
+
+        private final long timeoutNanos;
+
+        private Compiled(Code[] codes, Pattern combined) {
+
+            this.codes = codes;
+            this.combined = combined;
+
+            long timeout = 0;
+
+            for (Code code : codes)
+                timeout += code.getRegexTimeout();
+
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        }
+
+    }
+
+}
@@ -1,8 +1,14 @@
 package com.stephensantilli.totp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.HttpService;
 import burp.api.montoya.http.message.requests.HttpRequest;
 
 /**
@@ -11,6 +17,16 @@ import burp.api.montoya.http.message.requests.HttpRequest;
  */
 public class Scope {
 
+    /**
+     * The most hosts whose custom scope decisions are cached at once.
+     */
+    private static final int MAX_CACHED_HOSTS = 256;
+
+    /**
+     * The most paths whose suite scope decisions are cached at once.
+     */
+    private static final int MAX_CACHED_PATHS = 1024;
+
     /**
      * URL prefixes used to limit scope.
      */
@@ -23,6 +39,30 @@ public class Scope {
 
     private ScopeOption scopeOption;
 
+    /**
+     * The enabled {@link #prefixes}, compiled so that requests can be checked
+     * against all of them at once. This must be rebuilt whenever a prefix is
+     * added, removed, or changed.
+     */
+    private volatile Compiled compiled = Compiled.build(List.of());
+
+    /**
+     * Incremented whenever anything that decides whether a request is in scope
+     * changes. Cached decisions from an earlier epoch are ignored.
+     */
+    private volatile int epoch;
+
+    /**
+     * Whether each recently seen host, port, and scheme is in the custom scope.
+     */
+    private final Decisions<Origin> decisions = new Decisions<>(MAX_CACHED_HOSTS);
+
+    /**
+     * Whether each recently seen path, along with its host, port, and scheme,
+     * is in Burp's suite scope.
+     */
+    private final Decisions<String> suiteDecisions = new Decisions<>(MAX_CACHED_PATHS);
+
     /**
      * Creates an empty Scope object with the default {@link ScopeOption}, {@link ScopeOption#ALL_URLS}.
      */
@@ -38,6 +78,8 @@ public class Scope {
         this.tools = tools;
         this.scopeOption = suiteScope;
 
+        rebuild();
+
     }
 
     /**
@@ -46,6 +88,13 @@ public class Scope {
      * 
      * Note: This does not check if the request originates from an in-scope tool.
      * 
+     * Custom prefixes are checked with {@link Compiled}. A request is in an
+     * enabled prefix's scope if its host starts with the prefix's host, or, if
+     * the prefix includes subdomains, ends with {@code .} and the prefix's host.
+     * A prefix starting with {@code https://} only matches HTTPS requests.
+     * Prefixes only look at the scheme and host of a URL, so each decision is
+     * cached by the request's {@link HttpService}.
+     * 
      * @param req The request to check.
      * @return Whether or not the request is within this scope.
      */
@@ -54,16 +103,108 @@ public class Scope {
         if (scopeOption.equals(ScopeOption.ALL_URLS))
             return true;
         else if (scopeOption.equals(ScopeOption.SUITE_SCOPE))
-            return req.isInScope();
+            return requestInSuiteScope(req);
+
+        // Read before the prefixes, which are always rebuilt first, so a
+        // decision from old prefixes is never cached under the new epoch
+        int epoch = this.epoch;
+
+        HttpService service = req.httpService();
+        Origin origin = new Origin(service.host(), service.port(), service.secure());
+
+        Boolean cached = decisions.lookup(origin, epoch);
+
+        if (cached != null) {
+
+            Metrics.SCOPE_CACHE_HITS.increment();
+            return cached;
+
+        }
+
+        Metrics.SCOPE_CACHE_MISSES.increment();
+
+        boolean inScope = compiled.matches(req.url());
+
+        decisions.store(origin, epoch, inScope);
+
+        return inScope;
+
+    }
+
+    /**
+     * Checks a request against Burp's suite scope, caching the decision by the
+     * request's URL without its query. Burp is only asked again once its scope
+     * changes, which must be reported with {@link #suiteScopeChanged()}.
+     * 
+     * @param req The request to check
+     * @return Whether the request is in Burp's suite scope
+     */
+    private boolean requestInSuiteScope(HttpRequest req) {
+
+        // Read before asking Burp, so a decision made during a scope change is
+        // never cached under the new epoch
+        int epoch = this.epoch;
+
+        HttpService service = req.httpService();
+        String location = (service.secure() ? "https://" : "http://") + service.host() + ":" + service.port()
+                + req.pathWithoutQuery();
+
+        Boolean cached = suiteDecisions.lookup(location, epoch);
+
+        if (cached != null) {
+
+            Metrics.SUITE_SCOPE_CACHE_HITS.increment();
+            return cached;
+
+        }
+
+        Metrics.SUITE_SCOPE_CACHE_MISSES.increment();
+
+        boolean inScope = req.isInScope();
+
+        suiteDecisions.store(location, epoch, inScope);
+
+        return inScope;
+
+    }
+
+    /**
+     * Invalidates every cached suite scope decision. This must be called
+     * whenever Burp's suite scope changes.
+     */
+    public void suiteScopeChanged() {
+
+        invalidate();
+
+    }
+
+    /**
+     * Invalidates every cached scope decision by starting a new epoch.
+     */
+    private synchronized void invalidate() {
+
+        epoch++;
+
+    }
+
+    /**
+     * Recompiles the enabled prefixes. This must be called after a
+     * {@link ScopeItem} in this scope is changed.
+     */
+    public void rebuild() {
+
+        List<ScopeItem> enabled = new ArrayList<>();
 
         for (ScopeItem item : prefixes) {
 
-            if (item.isEnabled() && item.isInScope(req.url()))
-                return true;
+            if (item.isEnabled())
+                enabled.add(item);
 
         }
 
-        return false;
+        this.compiled = Compiled.build(enabled);
+
+        invalidate();
 
     }
 
@@ -73,6 +214,7 @@ public class Scope {
 
     public void setScopeOption(ScopeOption scopeOption) {
         this.scopeOption = scopeOption;
+        invalidate();
     }
 
     public void addTool(ToolType tool) {
@@ -91,12 +233,14 @@ public class Scope {
     public void addItem(ScopeItem item) {
 
         prefixes.add(item);
+        rebuild();
 
     }
 
     public void removePrefix(int index) {
 
         prefixes.remove(index);
+        rebuild();
 
     }
 
@@ -106,6 +250,7 @@ public class Scope {
 
     public void setPrefixes(ArrayList<ScopeItem> prefixes) {
         this.prefixes = prefixes;
+        rebuild();
     }
 
     public ArrayList<ToolType> getTools() {
@@ -122,6 +267,296 @@ public class Scope {
 
     public void setSuiteScope(ScopeOption suiteScope) {
         this.scopeOption = suiteScope;
+        invalidate();
+    }
+
+    /**
+     * A host, port, and scheme.
+     */
+    private static final class Origin {
+
+        private final String host;
+
+        private final int port;
+
+        private final boolean secure;
+
+        private Origin(String host, int port, boolean secure) {
+
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            return o instanceof Origin other && other.port == port && other.secure == secure
+                    && other.host.equals(host);
+
+        }
+
+        @Override
+        public int hashCode() {
+
+            return (host.hashCode() * 31 + port) * 2 + (secure ? 1 : 0);
+
+        }
+
+    }
+
+    /**
+     * A bounded cache of scope decisions, each tagged with the {@link #epoch}
+     * it was made in. Lookups don't take a lock, since every in-scope request
+     * from every HTTP thread goes through here. Instead of tracking which
+     * entries were used least recently, the whole cache is cleared when it
+     * fills up; traffic is dominated by a few hosts, which are cached again on
+     * their next request.
+     */
+    private static final class Decisions<K> {
+
+        private final Map<K, Decision> decisions = new ConcurrentHashMap<>();
+
+        private final int capacity;
+
+        private Decisions(int capacity) {
+
+            this.capacity = capacity;
+
+        }
+
+        /**
+         * @return The cached decision, or {@code null} if there isn't one from
+         *         {@code epoch}
+         */
+        private Boolean lookup(K key, int epoch) {
+
+            Decision decision = decisions.get(key);
+
+            return decision != null && decision.epoch == epoch ? decision.inScope : null;
+
+        }
+
+        private void store(K key, int epoch, boolean inScope) {
+
+            if (decisions.size() >= capacity)
+                decisions.clear();
+
+            decisions.put(key, new Decision(epoch, inScope));
+
+        }
+
+    }
+
+    private static final class Decision {
+
+        private final int epoch;
+
+        private final boolean inScope;
+
+        private Decision(int epoch, boolean inScope) {
+
+            this.epoch = epoch;
+            this.inScope = inScope;
+
+        }
+
+    }
+
+    /**
+     * An immutable pair of character tries over the hosts of a set of prefixes.
+     * One holds each host, for {@code startsWith}; the other holds each host
+     * with a leading {@code .}, reversed, for the {@code endsWith} check of
+     * prefixes that include subdomains. Each node where a host ends records
+     * whether any of those prefixes allow plain HTTP.
+     */
+    private static final class Compiled {
+
+        /**
+         * Set on a node where the host of a prefix without a scheme, or with
+         * {@code http://}, ends.
+         */
+        private static final byte ANY_SCHEME = 1;
+
+        /**
+         * Set on a node where the host of a prefix with {@code https://} ends.
+         */
+        private static final byte HTTPS_ONLY = 2;
+
+        private final Trie hosts, subdomains;
+
+        private Compiled(Trie hosts, Trie subdomains) {
+
+            this.hosts = hosts;
+            this.subdomains = subdomains;
+
+        }
+
+        private static Compiled build(List<ScopeItem> items) {
+
+            List<TreeMap<Character, Integer>> hosts = new ArrayList<>(), subdomains = new ArrayList<>();
+            List<Byte> hostFlags = new ArrayList<>(), subdomainFlags = new ArrayList<>();
+
+            hosts.add(new TreeMap<>());
+            hostFlags.add((byte) 0);
+            subdomains.add(new TreeMap<>());
+            subdomainFlags.add((byte) 0);
+
+            for (ScopeItem item : items) {
+
+                String prefix = item.getPrefix().toLowerCase();
+                byte flag = prefix.startsWith("https://") ? HTTPS_ONLY : ANY_SCHEME;
+
+                String host = prefix.replaceFirst("^https?://", "");
+                int pathStart = host.indexOf("/");
+
+                if (pathStart > -1)
+                    host = host.substring(0, pathStart);
+
+                add(hosts, hostFlags, host, flag);
+
+                if (item.getIncludeSubdomains())
+                    add(subdomains, subdomainFlags, new StringBuilder("." + host).reverse().toString(), flag);
+
+            }
+
+            return new Compiled(Trie.build(hosts, hostFlags), Trie.build(subdomains, subdomainFlags));
+
+        }
+
+        private static void add(List<TreeMap<Character, Integer>> trie, List<Byte> flags, String key, byte flag) {
+
+            int node = 0;
+
+            for (int i = 0; i < key.length(); i++) {
+
+                Integer next = trie.get(node).get(key.charAt(i));
+
+                if (next == null) {
+
+                    next = trie.size();
+                    trie.get(node).put(key.charAt(i), next);
+                    trie.add(new TreeMap<>());
+                    flags.add((byte) 0);
+
+                }
+
+                node = next;
+
+            }
+
+            flags.set(node, (byte) (flags.get(node) | flag));
+
+        }
+
+        /**
+         * @param url The URL of a request
+         * @return Whether the URL's host starts with the host of a prefix, or
+         *         ends with {@code .} and the host of a prefix that includes
+         *         subdomains, where that prefix allows the URL's scheme
+         */
+        private boolean matches(String url) {
+
+            boolean https = url.regionMatches(true, 0, "https://", 0, 8);
+            int start = https ? 8 : url.regionMatches(true, 0, "http://", 0, 7) ? 7 : 0;
+
+            int end = url.indexOf('/', start);
+
+            if (end < 0)
+                end = url.length();
+
+            return hosts.find(url, start, end, 1, https) || subdomains.find(url, end - 1, start - 1, -1, https);
+
+        }
+
+    }
+
+    /**
+     * A character trie whose transitions are stored as sorted parallel arrays.
+     */
+    private static final class Trie {
+
+        private final char[][] labels;
+
+        private final int[][] targets;
+
+        private final byte[] flags;
+
+        private Trie(char[][] labels, int[][] targets, byte[] flags) {
+
+            this.labels = labels;
+            this.targets = targets;
+            this.flags = flags;
+
+        }
+
+        private static Trie build(List<TreeMap<Character, Integer>> trie, List<Byte> flags) {
+
+            int size = trie.size();
+
+            char[][] labels = new char[size][];
+            int[][] targets = new int[size][];
+            byte[] flagArray = new byte[size];
+
+            for (int n = 0; n < size; n++) {
+
+                labels[n] = new char[trie.get(n).size()];
+                targets[n] = new int[trie.get(n).size()];
+
+                int i = 0;
+
+                for (Map.Entry<Character, Integer> edge : trie.get(n).entrySet()) {
+
+                    labels[n][i] = edge.getKey();
+                    targets[n][i++] = edge.getValue();
+
+                }
+
+                flagArray[n] = flags.get(n);
+
+            }
+
+            return new Trie(labels, targets, flagArray);
+
+        }
+
+        /**
+         * Walks {@code url} from {@code from} towards {@code to}, lowercasing
+         * each character, until a key that allows the scheme ends.
+         *
+         * @param step 1 to walk forwards, or -1 to walk backwards
+         * @return Whether a key that allows the scheme is a prefix of the walk
+         */
+        private boolean find(String url, int from, int to, int step, boolean https) {
+
+            int node = 0;
+
+            for (int i = from;; i += step) {
+
+                if (accepts(flags[node], https))
+                    return true;
+
+                if (i == to)
+                    return false;
+
+                int edge = Arrays.binarySearch(labels[node], Character.toLowerCase(url.charAt(i)));
+
+                if (edge < 0)
+                    return false;
+
+                node = targets[node][edge];
+
+            }
+
+        }
+
+        private static boolean accepts(byte flag, boolean https) {
+
+            return (flag & Compiled.ANY_SCHEME) != 0 || (https && (flag & Compiled.HTTPS_ONLY) != 0);
+
+        }
+
     }
 
 }
@@ -0,0 +1,271 @@
+package com.stephensantilli.totp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.Range;
+import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+/**
+ * A part of a request that a {@link Code}'s match string is searched for in. A
+ * code with no regions is searched for in the whole request.
+ *
+ * Regions are written as {@code headers}, {@code header:<name>},
+ * {@code query}, {@code cookies}, {@code body}, or {@code param:<name>}, and
+ * separated by commas. A comma in a name is written as {@code \,}.
+ */
+public class SearchRegion {
+
+    public enum Type {
+
+        HEADERS("headers", false),
+        HEADER("header", true),
+        QUERY("query", false),
+        COOKIES("cookies", false),
+        BODY("body", false),
+        PARAMETER("param", true);
+
+        private final String label;
+
+        private final boolean named;
+
+        private Type(String label, boolean named) {
+
+            this.label = label;
+            this.named = named;
+
+        }
+
+    }
+
+    private final Type type;
+
+    private final String name;
+
+    /**
+     * @param type The part of the request to search
+     * @param name The name of the header or parameter, or {@code null} for types
+     *             that aren't named
+     */
+    public SearchRegion(Type type, String name) {
+
+        this.type = type;
+        this.name = name;
+
+    }
+
+    public Type getType() {
+
+        return type;
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    /**
+     * Finds the spans of a request that this region covers.
+     *
+     * @param request The parsed request
+     * @param content The bytes of {@code request}
+     * @return The start and end of each span, in pairs
+     */
+    public int[] find(HttpRequest request, ByteArray content) {
+
+        int bodyOffset = request.bodyOffset();
+
+        switch (type) {
+
+            case HEADERS:
+                return new int[] { lineEnd(content, 0, bodyOffset) + 1, bodyOffset };
+
+            case HEADER:
+                return findHeaderValues(content, bodyOffset, name);
+
+            case COOKIES:
+                return findHeaderValues(content, bodyOffset, "Cookie");
+
+            case QUERY: {
+
+                int end = lineEnd(content, 0, bodyOffset);
+
+                for (int i = 0; i < end; i++) {
+
+                    if (content.getByte(i) == '?') {
+
+                        int queryEnd = i + 1;
+
+                        while (queryEnd < end && content.getByte(queryEnd) != ' ' && content.getByte(queryEnd) != '#')
+                            queryEnd++;
+
+                        return new int[] { i + 1, queryEnd };
+
+                    }
+
+                }
+
+                return new int[0];
+
+            }
+
+            case BODY:
+                return new int[] { bodyOffset, content.length() };
+
+            case PARAMETER: {
+
+                List<Integer> spans = new ArrayList<>();
+
+                for (ParsedHttpParameter parameter : request.parameters()) {
+
+                    if (!parameter.name().equals(name))
+                        continue;
+
+                    Range value = parameter.valueOffsets();
+
+                    spans.add(value.startIndexInclusive());
+                    spans.add(value.endIndexExclusive());
+
+                }
+
+                return spans.stream().mapToInt(Integer::intValue).toArray();
+
+            }
+
+        }
+
+        return new int[0];
+
+    }
+
+    /**
+     * Finds the values of every header with a given name.
+     *
+     * @param content    The HTTP message to search
+     * @param bodyOffset The index in {@code content} where the body starts
+     * @param name       The header's name, which is matched case-insensitively
+     * @return The start and end of each value, in pairs, without surrounding
+     *         whitespace
+     */
+    public static int[] findHeaderValues(ByteArray content, int bodyOffset, String name) {
+
+        int[] spans = new int[0];
+
+        // Skip the request line, then look at the start of each header
+        for (int start = lineEnd(content, 0, bodyOffset) + 1; start < bodyOffset; start = lineEnd(content, start,
+                bodyOffset) + 1) {
+
+            if (start + name.length() >= bodyOffset || content.getByte(start + name.length()) != ':')
+                continue;
+
+            boolean found = true;
+
+            for (int i = 0; i < name.length() && found; i++)
+                found = Character.toLowerCase((char) (content.getByte(start + i) & 0xFF)) == Character
+                        .toLowerCase(name.charAt(i));
+
+            if (!found)
+                continue;
+
+            int value = start + name.length() + 1, end = lineEnd(content, start, bodyOffset);
+
+            while (value < end && isWhitespace(content.getByte(value)))
+                value++;
+
+            while (end > value && isWhitespace(content.getByte(end - 1)))
+                end--;
+
+            spans = Arrays.copyOf(spans, spans.length + 2);
+            spans[spans.length - 2] = value;
+            spans[spans.length - 1] = end;
+
+        }
+
+        return spans;
+
+    }
+
+    /**
+     * Parses a comma separated list of regions.
+     *
+     * @param regions The regions, as written by {@link #toString(List)}
+     * @return The parsed regions, which is empty if {@code regions} is blank
+     * @throws IllegalArgumentException If a region isn't recognized
+     * @see LabeledList#parse(String)
+     */
+    public static List<SearchRegion> parse(String regions) throws IllegalArgumentException {
+
+        List<SearchRegion> parsed = new ArrayList<>();
+
+        for (String[] entry : LabeledList.parse(regions)) {
+
+            String label = entry[0], name = entry[1];
+
+            Type type = null;
+
+            for (Type t : Type.values()) {
+
+                if (t.label.equalsIgnoreCase(label))
+                    type = t;
+
+            }
+
+            if (type == null)
+                throw new IllegalArgumentException("Unknown search region \"" + label + "\".");
+
+            if (type.named && (name == null || name.isEmpty()))
+                throw new IllegalArgumentException("The \"" + type.label + "\" region needs a name, like \""
+                        + type.label + ":name\".");
+
+            if (!type.named && name != null)
+                throw new IllegalArgumentException("The \"" + type.label + "\" region doesn't take a name.");
+
+            parsed.add(new SearchRegion(type, name));
+
+        }
+
+        return parsed;
+
+    }
+
+    /**
+     * @param regions The regions to write
+     * @return The regions as a comma separated list that {@link #parse(String)}
+     *         accepts
+     */
+    public static String toString(List<SearchRegion> regions) {
+
+        return LabeledList.toString(regions);
+
+    }
+
+    @Override
+    public String toString() {
+
+        return LabeledList.toString(type.label, name);
+
+    }
+
+    /**
+     * @return The index of the next {@code '\n'} at or after {@code from}, or
+     *         {@code limit} if there isn't one
+     */
+    private static int lineEnd(ByteArray content, int from, int limit) {
+
+        while (from < limit && content.getByte(from) != '\n')
+            from++;
+
+        return from;
+
+    }
+
+    private static boolean isWhitespace(byte b) {
+
+        return b == ' ' || b == '\t' || b == '\r';
+
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.stephensantilli.totp;
+
+/**
+ * A {@link StepClock} whose time is only changed by hand. This makes code
+ * generation deterministic for benchmarks and for checking codes against known
+ * values.
+ */
+public class SimulatedClock implements StepClock {
+
+    private volatile long epochSecond;
+
+    /**
+     * @param epochSecond The number of seconds since the Unix epoch to start at
+     */
+    public SimulatedClock(long epochSecond) {
+
+        this.epochSecond = epochSecond;
+
+    }
+
+    @Override
+    public long epochSecond() {
+
+        return epochSecond;
+
+    }
+
+    public void setEpochSecond(long epochSecond) {
+
+        this.epochSecond = epochSecond;
+
+    }
+
+    /**
+     * Moves the clock forwards, or backwards if {@code seconds} is negative.
+     * 
+     * @param seconds The number of seconds to move by
+     */
+    public synchronized void advance(long seconds) {
+
+        this.epochSecond += seconds;
+
+    }
+
+}
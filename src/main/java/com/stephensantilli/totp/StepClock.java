@@ -0,0 +1,48 @@
+package com.stephensantilli.totp;
+
+/**
+ * The source of the current time used to generate codes. The clock only needs
+ * one-second resolution, since that is the smallest duration a code can have.
+ * 
+ * @see Generator#setClock(StepClock)
+ */
+public interface StepClock {
+
+    /**
+     * Reads the time directly from {@link System#currentTimeMillis()} on every
+     * call.
+     */
+    public static final StepClock SYSTEM = () -> System.currentTimeMillis() / 1000;
+
+    /**
+     * @return The number of whole seconds since the Unix epoch
+     */
+    public long epochSecond();
+
+    /**
+     * Gets the current time in milliseconds, for scheduling work shortly before
+     * a time step begins. Clocks only track whole seconds, so the milliseconds
+     * are how far the system clock is into its current second. This agrees with
+     * {@link #epochSecond()} and {@link #getCounter(int)} on which step it is.
+     * 
+     * @return The number of milliseconds since the Unix epoch
+     */
+    public default long epochMilli() {
+
+        return epochSecond() * 1000 + System.currentTimeMillis() % 1000;
+
+    }
+
+    /**
+     * Gets the current time step for codes with the given duration.
+     * 
+     * @param duration The number of seconds each code is valid for
+     * @return The number of whole durations since the Unix epoch
+     */
+    public default long getCounter(int duration) {
+
+        return epochSecond() / duration;
+
+    }
+
+}
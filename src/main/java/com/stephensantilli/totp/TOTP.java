@@ -2,14 +2,20 @@ package com.stephensantilli.totp;
 
 import java.awt.Component;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
 
 import com.stephensantilli.totp.ui.CodeItem;
@@ -40,6 +46,8 @@ import burp.api.montoya.http.sessions.SessionHandlingActionData;
 import burp.api.montoya.logging.Logging;
 import burp.api.montoya.persistence.PersistedList;
 import burp.api.montoya.persistence.PersistedObject;
+import burp.api.montoya.scope.ScopeChange;
+import burp.api.montoya.scope.ScopeChangeHandler;
 import burp.api.montoya.ui.UserInterface;
 import burp.api.montoya.ui.contextmenu.ContextMenuEvent;
 import burp.api.montoya.ui.contextmenu.ContextMenuItemsProvider;
@@ -50,19 +58,37 @@ import burp.api.montoya.ui.settings.SettingsPanelPersistence;
 import burp.api.montoya.ui.settings.SettingsPanelSetting;
 import burp.api.montoya.ui.settings.SettingsPanelWithData;
 import burp.api.montoya.utilities.ByteUtils;
+import burp.api.montoya.websocket.BinaryMessage;
+import burp.api.montoya.websocket.BinaryMessageAction;
+import burp.api.montoya.websocket.Direction;
+import burp.api.montoya.websocket.MessageHandler;
+import burp.api.montoya.websocket.TextMessage;
+import burp.api.montoya.websocket.TextMessageAction;
+import burp.api.montoya.websocket.WebSocketCreated;
+import burp.api.montoya.websocket.WebSocketCreatedHandler;
 
 /**
  * The main class for TOTP.
  */
 public class TOTP
         implements BurpExtension, ExtensionUnloadingHandler, UIListener, HttpHandler, SessionHandlingAction,
-        ContextMenuItemsProvider {
+        ContextMenuItemsProvider, WebSocketCreatedHandler, MessageHandler, ScopeChangeHandler {
 
     public static final int DEFAULT_DIGITS = 6, DEFAULT_DURATION = 30;
 
     public static final String PERSISTENCE_SETTING = "Save TOTPs to project file",
             MATCH_SETTING = "Use regex when matching TOTPs",
-            DEBUG_SETTING = "Enable verbose logging";
+            DEBUG_SETTING = "Enable verbose logging",
+            PRECOMPUTE_LEAD_SETTING = "Pre-compute the next TOTP this many milliseconds before it is valid",
+            PRECOMPUTE_STEPS_SETTING = "Number of future TOTPs to keep pre-computed",
+            CHUNK_LIMIT_SETTING = "Copy requests larger than this many KB in chunks (0 for never)",
+            SKIP_LIMIT_SETTING = "Don't search request bodies larger than this many KB (0 for no limit)";
+
+    /**
+     * How often {@link Metrics#summary()} is logged when verbose logging is
+     * enabled.
+     */
+    public static final int METRICS_LOG_INTERVAL_MS = 60000;
 
     public static final String SCOPE_OPTION_KEY = "_SCOPE_OPTION",
             PREFIXES_KEY = "_PREFIX_LIST",
@@ -74,7 +100,10 @@ public class TOTP
             MATCH_KEY_SUFFIX = "_regex",
             DIGITS_KEY_SUFFIX = "_digits",
             DURATION_KEY_SUFFIX = "_duration",
-            ENABLED_KEY_SUFFIX = "_enabled";
+            ENABLED_KEY_SUFFIX = "_enabled",
+            REGEX_TIMEOUT_KEY_SUFFIX = "_regex_timeout",
+            REGIONS_KEY_SUFFIX = "_regions",
+            TARGETS_KEY_SUFFIX = "_targets";
 
     /**
      * Combined with a prefix from {@link #PREFIXES_KEY}, the key used to store
@@ -106,12 +135,48 @@ public class TOTP
 
     }
 
-    private ArrayList<Code> codes;
+    /**
+     * Read by Burp's HTTP threads and the {@link Precomputer}, so it is
+     * copy-on-write.
+     */
+    private CopyOnWriteArrayList<Code> codes;
 
     private TOTPPane totpPane;
 
     private Timer timer;
 
+    /**
+     * Logs {@link Metrics#summary()} while requests are being handled, so the
+     * counters can be watched during an attack.
+     */
+    private Timer metricsTimer;
+
+    /**
+     * The last summary {@link #metricsTimer} logged, so an idle extension
+     * doesn't log the same counters again.
+     */
+    private String loggedMetrics;
+
+    private Precomputer precomputer;
+
+    private PlaceholderEngine placeholders;
+
+    private RegexEngine regexes;
+
+    /**
+     * The enabled codes with {@link InjectionTarget}s. These are set in each
+     * request instead of being searched for.
+     */
+    private volatile List<Code> injected = List.of();
+
+    /**
+     * The running check of each code's regex. These are only used on the Swing
+     * event thread.
+     */
+    private final Map<Code, SwingWorker<String, Void>> analyses = new HashMap<>();
+
+    private TickingClock clock;
+
     private Scope scope;
 
     private ScopeDialog scopeDialog;
@@ -131,7 +196,13 @@ public class TOTP
 
         ext.setName("TOTP");
 
-        this.codes = new ArrayList<>();
+        this.codes = new CopyOnWriteArrayList<>();
+        this.placeholders = new PlaceholderEngine();
+        this.regexes = new RegexEngine(this::regexTimedOut);
+
+        this.clock = new TickingClock();
+        clock.start();
+        Generator.setClock(clock);
         this.totpPane = new TOTPPane(this);
 
         TOTP.settings = SettingsPanelBuilder.settingsPanel()
@@ -143,6 +214,10 @@ public class TOTP
                 .withSettings(SettingsPanelSetting.booleanSetting(PERSISTENCE_SETTING, true))
                 .withSettings(SettingsPanelSetting.booleanSetting(MATCH_SETTING, false))
                 .withSettings(SettingsPanelSetting.booleanSetting(DEBUG_SETTING, false))
+                .withSettings(SettingsPanelSetting.integerSetting(PRECOMPUTE_LEAD_SETTING, 1000))
+                .withSettings(SettingsPanelSetting.integerSetting(PRECOMPUTE_STEPS_SETTING, 1))
+                .withSettings(SettingsPanelSetting.integerSetting(CHUNK_LIMIT_SETTING, 10240))
+                .withSettings(SettingsPanelSetting.integerSetting(SKIP_LIMIT_SETTING, 0))
                 .build();
 
         ui.registerSettingsPanel(settings);
@@ -160,6 +235,12 @@ public class TOTP
         api.http().registerSessionHandlingAction(this);
         logOutput("Registered session handling action.", true);
 
+        api.websockets().registerWebSocketCreatedHandler(this);
+        logOutput("Registered WebSocket handler.", true);
+
+        api.scope().registerScopeChangeHandler(this);
+        logOutput("Registered scope change handler.", true);
+
         if (!settings.getBoolean(PERSISTENCE_SETTING))
             clearCodeStorage();
 
@@ -171,9 +252,22 @@ public class TOTP
 
         timer.setRepeats(true);
 
+        this.metricsTimer = new Timer(METRICS_LOG_INTERVAL_MS, l -> {
+
+            logMetrics();
+
+        });
+
+        metricsTimer.setRepeats(true);
+        metricsTimer.start();
+
         loadScope();
         loadCodes();
 
+        this.precomputer = new Precomputer(codes);
+        precomputer.start();
+        logOutput("Started TOTP pre-computation.", true);
+
         ui.registerSuiteTab("TOTP", totpPane);
 
         log.logToOutput("TOTP Initialized!");
@@ -186,6 +280,11 @@ public class TOTP
         logOutput("Unloading TOTP...", false);
 
         timer.stop();
+        metricsTimer.stop();
+        precomputer.stop();
+        logOutput(Metrics.summary(), true);
+        clock.stop();
+        Generator.setClock(StepClock.SYSTEM);
 
         PersistedObject data = api.persistence().extensionData();
 
@@ -214,6 +313,25 @@ public class TOTP
 
     }
 
+    /**
+     * Logs {@link Metrics#summary()} if verbose logging is enabled and any
+     * counter has changed since it was last logged.
+     */
+    private void logMetrics() {
+
+        if (!settings.getBoolean(DEBUG_SETTING))
+            return;
+
+        String summary = Metrics.summary();
+
+        if (summary.equals(loggedMetrics))
+            return;
+
+        loggedMetrics = summary;
+        logOutput(summary, true);
+
+    }
+
     @Override
     public String name() {
         return "Insert TOTP into request";
@@ -254,6 +372,76 @@ public class TOTP
 
     }
 
+    /**
+     * Forgets the cached suite scope decisions when Burp's target scope is
+     * edited.
+     */
+    @Override
+    public void scopeChanged(ScopeChange scopeChange) {
+
+        // The scope hasn't been loaded yet
+        if (scope == null)
+            return;
+
+        scope.suiteScopeChanged();
+
+        logOutput("Suite scope changed, cleared cached scope decisions.", true);
+
+    }
+
+    /**
+     * Watches the messages of new WebSockets whose upgrade request is in scope.
+     * The scope is checked once, when the WebSocket is opened.
+     */
+    @Override
+    public void handleWebSocketCreated(WebSocketCreated webSocketCreated) {
+
+        if (!scope.getTools().contains(webSocketCreated.toolSource().toolType()))
+            return;
+
+        if (!scope.requestInURLScope(webSocketCreated.upgradeRequest()))
+            return;
+
+        webSocketCreated.webSocket().registerMessageHandler(this);
+
+    }
+
+    @Override
+    public TextMessageAction handleTextMessage(TextMessage textMessage) {
+
+        if (textMessage.direction() != Direction.CLIENT_TO_SERVER)
+            return TextMessageAction.continueWith(textMessage);
+
+        String payload = settings.getBoolean(MATCH_SETTING) ? regexes.replace(textMessage.payload())
+                : placeholders.replace(textMessage.payload());
+
+        if (payload == null)
+            return TextMessageAction.continueWith(textMessage);
+
+        logOutput("Replaced TOTPs in a WebSocket message.", true);
+
+        return TextMessageAction.continueWith(payload);
+
+    }
+
+    @Override
+    public BinaryMessageAction handleBinaryMessage(BinaryMessage binaryMessage) {
+
+        // Binary messages aren't text, so they are never matched with regexes
+        if (binaryMessage.direction() != Direction.CLIENT_TO_SERVER || settings.getBoolean(MATCH_SETTING))
+            return BinaryMessageAction.continueWith(binaryMessage);
+
+        byte[] payload = placeholders.replace(binaryMessage.payload());
+
+        if (payload == null)
+            return BinaryMessageAction.continueWith(binaryMessage);
+
+        logOutput("Replaced TOTPs in a WebSocket message.", true);
+
+        return BinaryMessageAction.continueWith(ByteArray.byteArray(payload));
+
+    }
+
     @Override
     public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived responseReceived) {
 
@@ -279,6 +467,7 @@ public class TOTP
         code.generateCode();
 
         codes.add(code);
+        compileMatches();
         codeTable.addCode(code);
         entryPane.resetEntry();
 
@@ -299,8 +488,14 @@ public class TOTP
         Code code = codeItem.getCode();
 
         this.codes.remove(code);
+        compileMatches();
         codeTable.removeCode(codeItem);
 
+        SwingWorker<String, Void> analysis = analyses.remove(code);
+
+        if (analysis != null)
+            analysis.cancel(true);
+
         if (codes.size() == 0)
             timer.stop();
 
@@ -314,6 +509,9 @@ public class TOTP
         data.deleteInteger(name + DIGITS_KEY_SUFFIX);
         data.deleteInteger(name + DURATION_KEY_SUFFIX);
         data.deleteBoolean(name + ENABLED_KEY_SUFFIX);
+        data.deleteInteger(name + REGEX_TIMEOUT_KEY_SUFFIX);
+        data.deleteString(name + REGIONS_KEY_SUFFIX);
+        data.deleteString(name + TARGETS_KEY_SUFFIX);
 
         PersistedList<String> names = data.getStringList(NAMES_KEY);
 
@@ -337,6 +535,7 @@ public class TOTP
         logOutput("Updating regex for \"" + name + "\" to \"" + match + "\"...", true);
 
         code.setMatch(match);
+        compileMatches();
 
         if (settings.getBoolean(PERSISTENCE_SETTING)) {
 
@@ -348,14 +547,176 @@ public class TOTP
 
         totpPane.getCodeTable().highlightMatches();
 
+        analyzeMatch(code);
+
         logOutput("Updated regex for \"" + name + "\".", true);
 
     }
 
+    @Override
+    public void setRegexTimeout(Code code, int timeoutMillis) throws IllegalArgumentException {
+
+        code.setRegexTimeout(timeoutMillis);
+        compileMatches();
+
+        if (settings.getBoolean(PERSISTENCE_SETTING)) {
+
+            PersistedObject data = api.persistence().extensionData();
+
+            data.setInteger(code.getName() + REGEX_TIMEOUT_KEY_SUFFIX, timeoutMillis);
+
+        }
+
+        analyzeMatch(code);
+
+        logOutput("Set the regex time limit for \"" + code.getName() + "\" to " + timeoutMillis + " ms.", true);
+
+    }
+
+    @Override
+    public void setSearchRegions(Code code, String regions) throws IllegalArgumentException {
+
+        code.setRegions(SearchRegion.parse(regions));
+        compileMatches();
+
+        if (settings.getBoolean(PERSISTENCE_SETTING)) {
+
+            PersistedObject data = api.persistence().extensionData();
+
+            data.setString(code.getName() + REGIONS_KEY_SUFFIX, SearchRegion.toString(code.getRegions()));
+
+        }
+
+        logOutput("Set the search regions for \"" + code.getName() + "\" to \""
+                + SearchRegion.toString(code.getRegions()) + "\".", true);
+
+    }
+
+    @Override
+    public void setInjectionTargets(Code code, String targets) throws IllegalArgumentException {
+
+        code.setTargets(InjectionTarget.parse(targets));
+        compileMatches();
+
+        if (settings.getBoolean(PERSISTENCE_SETTING)) {
+
+            PersistedObject data = api.persistence().extensionData();
+
+            data.setString(code.getName() + TARGETS_KEY_SUFFIX, InjectionTarget.toString(code.getTargets()));
+
+        }
+
+        logOutput("Set the injection targets for \"" + code.getName() + "\" to \""
+                + InjectionTarget.toString(code.getTargets()) + "\".", true);
+
+    }
+
+    /**
+     * Checks whether a code's regex is invalid or likely to be slow, and shows a
+     * warning on its {@link CodeItem} if it is. The check runs in the
+     * background, since a slow regex can take up to its time limit to test.
+     * Nothing is checked unless regex matching is enabled.
+     * 
+     * @param code The code to check
+     */
+    private void analyzeMatch(Code code) {
+
+        CodeItem item = totpPane.getCodeTable().getItem(code);
+
+        if (item == null)
+            return;
+
+        if (!settings.getBoolean(MATCH_SETTING)) {
+
+            item.setWarning(null);
+            return;
+
+        }
+
+        Pattern pattern = code.getPattern();
+
+        if (pattern == null) {
+
+            item.setWarning("This is not a valid regex, so it will not be replaced.");
+            return;
+
+        }
+
+        // Only this code's previous check is out of date
+        SwingWorker<String, Void> previous = analyses.get(code);
+
+        if (previous != null)
+            previous.cancel(true);
+
+        int timeout = code.getRegexTimeout();
+
+        SwingWorker<String, Void> analysis = new SwingWorker<String, Void>() {
+
+            @Override
+            protected String doInBackground() {
+
+                return RegexEngine.analyze(pattern, timeout);
+
+            }
+
+            @Override
+            protected void done() {
+
+                analyses.remove(code, this);
+
+                // The match may have been edited again since
+                if (isCancelled() || code.getPattern() != pattern)
+                    return;
+
+                try {
+
+                    item.setWarning(get());
+
+                } catch (Exception e) {
+
+                    logError("Unable to check \"" + pattern.pattern() + "\": " + e.getMessage(), true);
+
+                }
+
+            }
+
+        };
+
+        analyses.put(code, analysis);
+        analysis.execute();
+
+    }
+
+    /**
+     * Disables replacing for a code whose regex ran out of time while searching
+     * a request, so that it can't stall any more of Burp's HTTP threads. This
+     * is called from an HTTP thread, so the code is disabled on the Swing event
+     * thread, where it can't rebuild the engines at the same time as an edit
+     * made in the UI.
+     * 
+     * @param code The code whose regex timed out
+     */
+    private void regexTimedOut(Code code) {
+
+        SwingUtilities.invokeLater(() -> {
+
+            setCodeEnabled(code, false);
+
+            CodeItem item = totpPane.getCodeTable().getItem(code);
+
+            if (item != null)
+                item.disableReplacing("Replacing was disabled because this regex took longer than "
+                        + code.getRegexTimeout() + " ms to search a request.");
+
+        });
+
+    }
+
     @Override
     public void setCodeEnabled(Code code, boolean enabled) {
 
         code.setEnabled(enabled);
+        compileMatches();
 
         if (settings.getBoolean(PERSISTENCE_SETTING)) {
 
@@ -518,6 +879,7 @@ public class TOTP
         data.deleteBoolean(oldPrefix + PREFIX_INCLUDE_SUBDOMAINS_SUFFIX);
 
         item.setPrefix(prefix);
+        scope.rebuild();
 
         data.setBoolean(prefix + PREFIX_ENABLED_SUFFIX, item.isEnabled());
         data.setBoolean(prefix + PREFIX_INCLUDE_SUBDOMAINS_SUFFIX, item.getIncludeSubdomains());
@@ -535,6 +897,7 @@ public class TOTP
         data.setBoolean(item.getPrefix() + PREFIX_ENABLED_SUFFIX, enabled);
 
         item.setEnabled(enabled);
+        scope.rebuild();
 
         logOutput((enabled ? "Enabled" : "Disabled") + " \"" + item.getPrefix() + "\"!", true);
 
@@ -549,6 +912,7 @@ public class TOTP
         data.setBoolean(item.getPrefix() + PREFIX_INCLUDE_SUBDOMAINS_SUFFIX, includeSubdomains);
 
         item.setIncludeSubdomains(includeSubdomains);
+        scope.rebuild();
 
         logOutput((includeSubdomains ? "Enabled" : "Disabled") + " include subdomains for \"" + item.getPrefix() + "!",
                 true);
@@ -639,8 +1003,19 @@ public class TOTP
             if (secret == null || crypto == null || regex == null)
                 throw new Exception("Invalid values.");
 
+            Code code = new Code(name, secret, regex, digits, duration, crypto, enabled);
+
+            // Saved before the time limit existed
+            Integer regexTimeout = data.getInteger(name + REGEX_TIMEOUT_KEY_SUFFIX);
+
+            if (regexTimeout != null)
+                code.setRegexTimeout(regexTimeout);
+
+            code.setRegions(SearchRegion.parse(data.getString(name + REGIONS_KEY_SUFFIX)));
+            code.setTargets(InjectionTarget.parse(data.getString(name + TARGETS_KEY_SUFFIX)));
+
             // Add code without saving it again
-            addCode(new Code(name, secret, regex, digits, duration, crypto, enabled), false);
+            addCode(code, false);
 
         } catch (Exception e) {
 
@@ -711,6 +1086,9 @@ public class TOTP
                 data.deleteInteger(name + DIGITS_KEY_SUFFIX);
                 data.deleteInteger(name + DURATION_KEY_SUFFIX);
                 data.deleteBoolean(name + ENABLED_KEY_SUFFIX);
+                data.deleteInteger(name + REGEX_TIMEOUT_KEY_SUFFIX);
+                data.deleteString(name + REGIONS_KEY_SUFFIX);
+                data.deleteString(name + TARGETS_KEY_SUFFIX);
 
             }
 
@@ -742,6 +1120,9 @@ public class TOTP
         data.setInteger(name + DIGITS_KEY_SUFFIX, code.getDigits());
         data.setInteger(name + DURATION_KEY_SUFFIX, code.getDuration());
         data.setBoolean(name + ENABLED_KEY_SUFFIX, code.isEnabled());
+        data.setInteger(name + REGEX_TIMEOUT_KEY_SUFFIX, code.getRegexTimeout());
+        data.setString(name + REGIONS_KEY_SUFFIX, SearchRegion.toString(code.getRegions()));
+        data.setString(name + TARGETS_KEY_SUFFIX, InjectionTarget.toString(code.getTargets()));
 
         PersistedList<String> names = data.getStringList(NAMES_KEY);
 
@@ -995,11 +1376,35 @@ public class TOTP
 
     }
 
+    /**
+     * Recompiles the match strings of every enabled code, for both literal and
+     * regex matching. This must be called whenever a code's match string or
+     * enabled state changes, or a code is added or removed.
+     */
+    private void compileMatches() {
+
+        placeholders.rebuild(codes);
+        regexes.rebuild(codes);
+
+        List<Code> injected = new ArrayList<>();
+
+        for (Code code : codes) {
+
+            if (code.isEnabled() && !code.getTargets().isEmpty())
+                injected.add(code);
+
+        }
+
+        this.injected = List.copyOf(injected);
+
+    }
+
     /**
      * Takes a request and checks for matches to {@link Code#getMatch()} against all
-     * codes in {@link #codes}. All occurrances of the match string of the first
-     * code to have a match will be replaced with {@link Code#generateCode()}. Other
-     * codes that also have matches will not be replaced.
+     * enabled codes in {@link #codes}. Every match of every code is replaced with
+     * that code's {@link Code#generateCode()}. Literal match strings are all found
+     * in a single pass by {@link #placeholders}. Codes with
+     * {@link InjectionTarget}s are then written to their targets.
      * 
      * @param req The {@link HttpRequest} to search for matches in
      * @return A new {@link HttpRequest} with matches replaced, or {@code null} if
@@ -1007,46 +1412,116 @@ public class TOTP
      */
     private HttpRequest matchAndReplace(HttpRequest req) {
 
-        logOutput("Called to replace in request " + req.method() + " " + req.pathWithoutQuery() + "...", true);
+        HttpRequest newReq = replaceMatches(req);
 
-        ByteUtils byteUtils = api.utilities().byteUtils();
+        List<Code> injected = this.injected;
 
-        boolean useRegex = TOTP.settings.getBoolean(TOTP.MATCH_SETTING);
+        if (!injected.isEmpty()) {
 
-        String content = byteUtils.convertToString(req.toByteArray().getBytes());
+            HttpRequest updated = injectCodes(newReq != null ? newReq : req, injected);
 
-        HttpRequest newReq = null;
+            if (updated != null)
+                newReq = updated;
 
-        for (int i = 0; i < codes.size(); i++) {
+        }
 
-            Code c = codes.get(i);
+        if (newReq == null)
+            return null;
 
-            if (!c.isEnabled())
-                continue;
+        logOutput("Replaced TOTPs in request " + req.method() + " " + req.pathWithoutQuery() + ".", false);
 
-            logOutput("[" + c.getName() + "]: Searching for match to \"" + c.getMatch() + "\"...", true);
+        return newReq;
 
-            String match = c.getMatch();
-            String newContent = content;
+    }
 
-            if (useRegex)
-                newContent = content.replaceAll(match, c.generateCode());
-            else
-                newContent = content.replace(match, c.generateCode());
+    /**
+     * Replaces the matches of every enabled code's match string, either as
+     * literals or as regular expressions.
+     * 
+     * @param req The {@link HttpRequest} to search for matches in
+     * @return A new {@link HttpRequest} with matches replaced, or {@code null} if
+     *         none were found.
+     */
+    private HttpRequest replaceMatches(HttpRequest req) {
+
+        boolean useRegex = TOTP.settings.getBoolean(TOTP.MATCH_SETTING);
 
-            if (!newContent.equals(content)) {
+        HttpRequest newReq;
 
-                byte[] bytes = byteUtils.convertFromString(newContent);
+        if (useRegex) {
+
+            ByteArray content = req.toByteArray();
+            int bodyOffset = req.bodyOffset();
+
+            if (isSkippedBody(content.length() - bodyOffset)) {
+
+                // Only the headers are searched
+                byte[] headers = regexReplace(content.subArray(0, bodyOffset));
+
+                if (headers == null)
+                    return null;
 
                 newReq = HttpRequest.httpRequest(req.httpService(),
-                        ByteArray.byteArray(bytes));
+                        ByteArray.byteArray(headers).withAppended(content.subArray(bodyOffset, content.length())));
+
+            } else {
+
+                byte[] bytes = regexReplace(content);
+
+                if (bytes == null)
+                    return null;
+
+                newReq = HttpRequest.httpRequest(req.httpService(), ByteArray.byteArray(bytes));
 
                 // This updates Content-Length so that the request doesn't fail when
                 // match.length() != c.generateCode().length()
                 newReq = newReq.withBody(newReq.body());
 
-                logOutput("[" + c.getName() + "]: Replaced content matching \"" + c.getMatch() + "\" for request "
-                        + req.method() + " " + req.pathWithoutQuery() + "...", false);
+            }
+
+        } else {
+
+            // Content-Length is already updated
+            byte[] bytes = placeholders.replace(req);
+
+            if (bytes == null)
+                return null;
+
+            newReq = HttpRequest.httpRequest(req.httpService(), ByteArray.byteArray(bytes));
+
+        }
+
+        return newReq;
+
+    }
+
+    /**
+     * Sets each code's {@link InjectionTarget}s that are in a request to the
+     * code's current value.
+     * 
+     * @param req   The request to update
+     * @param codes The codes with targets
+     * @return The updated request, or {@code null} if it has none of the
+     *         targets
+     */
+    private static HttpRequest injectCodes(HttpRequest req, List<Code> codes) {
+
+        HttpRequest newReq = null;
+
+        for (Code code : codes) {
+
+            String[] value = new String[1];
+
+            // Only generated once a request is known to need it, then reused for
+            // the code's other targets
+            Supplier<String> generate = () -> value[0] != null ? value[0] : (value[0] = code.generateCode());
+
+            for (InjectionTarget target : code.getTargets()) {
+
+                HttpRequest updated = target.apply(newReq != null ? newReq : req, generate);
+
+                if (updated != null)
+                    newReq = updated;
 
             }
 
@@ -1056,4 +1531,51 @@ public class TOTP
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Checks a request body's size against {@link #SKIP_LIMIT_SETTING}.
+     * {@link #CHUNK_LIMIT_SETTING} only decides how literal matches are
+     * copied, so it doesn't stop a body from being searched with a regex.
+     * 
+     * @param length The length of the body in bytes
+     * @return Whether the body is too large to search
+     */
+    private static boolean isSkippedBody(int length) {
+
+        if (length == 0)
+            return false;
+
+        long skipLimit = 1024L * settings.getInteger(SKIP_LIMIT_SETTING);
+
+        boolean skipped = skipLimit > 0 && length > skipLimit;
+
+        if (skipped)
+            Metrics.BODY_SKIPPED.increment();
+
+        return skipped;
+
+    }
+
+    /**
+     * Replaces the matches of each enabled code's match string, as a regular
+     * expression, using {@link #regexes}.
+     * 
+     * @param content The request to search for matches in
+     * @return The request with matches replaced, or {@code null} if none were
+     *         found.
+     */
+    private byte[] regexReplace(ByteArray content) {
+
+        logOutput("Searching for regex matches...", true);
+
+        ByteUtils byteUtils = api.utilities().byteUtils();
+
+        String newContent = regexes.replace(byteUtils.convertToString(content.getBytes()));
+
+        if (newContent == null)
+            return null;
+
+        return byteUtils.convertFromString(newContent);
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.stephensantilli.totp;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link StepClock} that reads the system time once per second on a
+ * background thread and publishes it, so that callers only read a volatile
+ * field. The ticker wakes right after each second begins, so the published
+ * time trails the system clock by no more than the scheduler's latency.
+ */
+public class TickingClock implements StepClock {
+
+    private final ScheduledExecutorService executor;
+
+    private volatile long epochSecond;
+
+    public TickingClock() {
+
+        this.epochSecond = System.currentTimeMillis() / 1000;
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+
+            Thread thread = new Thread(r, "TOTP clock");
+            thread.setDaemon(true);
+
+            return thread;
+
+        });
+
+    }
+
+    public void start() {
+
+        executor.execute(this::tick);
+
+    }
+
+    public void stop() {
+
+        executor.shutdownNow();
+
+    }
+
+    @Override
+    public long epochSecond() {
+
+        return epochSecond;
+
+    }
+
+    /**
+     * Publishes the current second and schedules the next tick for the start of
+     * the following second.
+     */
+    private void tick() {
+
+        long now = System.currentTimeMillis();
+
+        this.epochSecond = now / 1000;
+
+        if (!executor.isShutdown())
+            executor.schedule(this::tick, 1000 - now % 1000, TimeUnit.MILLISECONDS);
+
+    }
+
+}
@@ -47,6 +47,40 @@ public interface UIListener {
      */
     public void setCodeEnabled(Code code, boolean enabled);
 
+    /**
+     * Sets how long a code's regex may search each request for. If persistence
+     * is enabled, this will also be reflected in the project store.
+     * 
+     * @param code         The code to set the time limit for
+     * @param timeoutMillis The time limit, in milliseconds
+     * @throws IllegalArgumentException If the time limit is less than 1 ms
+     */
+    public void setRegexTimeout(Code code, int timeoutMillis) throws IllegalArgumentException;
+
+    /**
+     * Sets the parts of a request a code's match string is searched for in. If
+     * persistence is enabled, this will also be reflected in the project store.
+     * 
+     * @param code    The code to set the regions for
+     * @param regions A comma separated list of regions, or a blank string to
+     *                search the whole request
+     * @throws IllegalArgumentException If a region isn't recognized
+     * @see SearchRegion#parse(String)
+     */
+    public void setSearchRegions(Code code, String regions) throws IllegalArgumentException;
+
+    /**
+     * Sets the headers and parameters a code's value is written to. If
+     * persistence is enabled, this will also be reflected in the project store.
+     * 
+     * @param code    The code to set the targets for
+     * @param targets A comma separated list of targets, or a blank string to
+     *                search for the code's match string instead
+     * @throws IllegalArgumentException If a target isn't recognized
+     * @see InjectionTarget#parse(String)
+     */
+    public void setInjectionTargets(Code code, String targets) throws IllegalArgumentException;
+
     /**
      * Adds an item to the scope of the extension in this project. If persistence is
      * enabled, this will also be reflected in the project store.
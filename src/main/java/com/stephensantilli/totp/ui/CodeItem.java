@@ -22,8 +22,10 @@ import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
@@ -32,12 +34,16 @@ import javax.swing.border.Border;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 
+import org.kordamp.ikonli.materialdesign2.MaterialDesignA;
 import org.kordamp.ikonli.materialdesign2.MaterialDesignC;
 import org.kordamp.ikonli.materialdesign2.MaterialDesignK;
 import org.kordamp.ikonli.materialdesign2.MaterialDesignS;
 import org.kordamp.ikonli.swing.FontIcon;
 
 import com.stephensantilli.totp.Code;
+import com.stephensantilli.totp.Generator;
+import com.stephensantilli.totp.InjectionTarget;
+import com.stephensantilli.totp.SearchRegion;
 import com.stephensantilli.totp.UIListener;
 
 import burp.api.montoya.ui.Theme;
@@ -68,7 +74,7 @@ public class CodeItem extends JPanel implements KeyListener, MouseListener {
 
     private Font font;
 
-    private FontIcon copySuccessIcon, copyCodeIcon, copySecretIcon, removeIcon, algoIcon;
+    private FontIcon copySuccessIcon, copyCodeIcon, copySecretIcon, removeIcon, algoIcon, warningIcon;
 
     private boolean darkMode, regexValid;
 
@@ -159,6 +165,35 @@ public class CodeItem extends JPanel implements KeyListener, MouseListener {
 
     }
 
+    /**
+     * Shows a warning icon next to the match field, with {@code warning} as its
+     * tooltip.
+     * 
+     * @param warning The warning to show, or {@code null} to clear it
+     */
+    public void setWarning(String warning) {
+
+        matchLbl.setIcon(warning == null ? null : warningIcon);
+        matchLbl.setToolTipText(warning);
+
+    }
+
+    /**
+     * Unchecks "Replace in requests?" and shows a warning explaining why. This
+     * does not notify the {@link UIListener}.
+     * 
+     * @param warning Why replacing was disabled
+     */
+    public void disableReplacing(String warning) {
+
+        enabledBox.setSelected(false);
+        matchField.setEnabled(false);
+        matchLbl.setEnabled(false);
+
+        setWarning(warning);
+
+    }
+
     @Override
     public void keyTyped(KeyEvent e) {
 
@@ -364,6 +399,10 @@ public class CodeItem extends JPanel implements KeyListener, MouseListener {
         matchLblCons.fill = GridBagConstraints.BOTH;
         matchLblCons.anchor = GridBagConstraints.CENTER;
 
+        this.warningIcon = FontIcon.of(MaterialDesignA.ALERT);
+        warningIcon.setIconColor(new Color(230, 140, 0));
+        warningIcon.setIconSize(font.getSize());
+
         this.add(matchLbl, matchLblCons);
 
         this.matchField = new JTextField("XXXXXXXXXXXXXXXXXXXX");
@@ -374,6 +413,97 @@ public class CodeItem extends JPanel implements KeyListener, MouseListener {
         matchField.addKeyListener(this);
         matchField.setEnabled(code.isEnabled());
 
+        JMenuItem timeoutItem = new JMenuItem("Set regex time limit...");
+
+        timeoutItem.addActionListener(l -> {
+
+            String input = JOptionPane.showInputDialog(SwingUtilities.getWindowAncestor(this),
+                    "Milliseconds this TOTP's regex may search each request for:", code.getRegexTimeout());
+
+            if (input == null)
+                return;
+
+            try {
+
+                listener.setRegexTimeout(code, Integer.parseInt(input.trim()));
+
+            } catch (IllegalArgumentException e) {
+
+                JOptionPane.showMessageDialog(
+                        SwingUtilities.getWindowAncestor(this),
+                        "Please enter a whole number of milliseconds, at least 1.",
+                        "Error",
+                        JOptionPane.WARNING_MESSAGE);
+
+            }
+
+        });
+
+        JMenuItem regionsItem = new JMenuItem("Set search regions...");
+
+        regionsItem.addActionListener(l -> {
+
+            String input = JOptionPane.showInputDialog(SwingUtilities.getWindowAncestor(this),
+                    "Parts of each request to search, separated by commas. Leave blank to search everything."
+                            + "\nheaders, header:<name>, query, cookies, body, param:<name>"
+                            + "\nWrite a comma in a name as \\,",
+                    SearchRegion.toString(code.getRegions()));
+
+            if (input == null)
+                return;
+
+            try {
+
+                listener.setSearchRegions(code, input);
+
+            } catch (IllegalArgumentException e) {
+
+                JOptionPane.showMessageDialog(
+                        SwingUtilities.getWindowAncestor(this),
+                        e.getMessage(),
+                        "Error",
+                        JOptionPane.WARNING_MESSAGE);
+
+            }
+
+        });
+
+        JMenuItem targetsItem = new JMenuItem("Set injection targets...");
+
+        targetsItem.addActionListener(l -> {
+
+            String input = JOptionPane.showInputDialog(SwingUtilities.getWindowAncestor(this),
+                    "Headers and parameters to set to this TOTP, separated by commas. Leave blank to search for"
+                            + " the match string instead.\nheader:<name>, query:<name>, body:<name>, cookie:<name>, json:<pointer>"
+                            + "\nWrite a comma in a name or pointer as \\,",
+                    InjectionTarget.toString(code.getTargets()));
+
+            if (input == null)
+                return;
+
+            try {
+
+                listener.setInjectionTargets(code, input);
+
+            } catch (IllegalArgumentException e) {
+
+                JOptionPane.showMessageDialog(
+                        SwingUtilities.getWindowAncestor(this),
+                        e.getMessage(),
+                        "Error",
+                        JOptionPane.WARNING_MESSAGE);
+
+            }
+
+        });
+
+        JPopupMenu matchMenu = new JPopupMenu();
+        matchMenu.add(timeoutItem);
+        matchMenu.add(regionsItem);
+        matchMenu.add(targetsItem);
+
+        matchField.setComponentPopupMenu(matchMenu);
+
         boolean darkMode = api.userInterface().currentTheme() == Theme.DARK;
 
         Color matchFieldBorderColor = darkMode ? new Color(0, 0, 0, 0) : Color.LIGHT_GRAY;
@@ -422,6 +552,9 @@ public class CodeItem extends JPanel implements KeyListener, MouseListener {
             matchField.setEnabled(enabled);
             matchLbl.setEnabled(enabled);
 
+            if (enabled)
+                setWarning(null);
+
         });
 
         this.add(enabledBox, enabledBoxCons);
@@ -564,7 +697,7 @@ public class CodeItem extends JPanel implements KeyListener, MouseListener {
     private void updateProgressBar() {
 
         int duration = code.getDuration();
-        int progress = duration - (((int) (System.currentTimeMillis() / 1000)) % duration);
+        int progress = duration - (int) (Generator.getClock().epochSecond() % duration);
 
         progressBar.setValue(progress);
         progressBar.setToolTipText(progress + "/" + duration + " seconds");
@@ -60,6 +60,24 @@ public class CodeTable extends JPanel {
 
     }
 
+    /**
+     * @param code The code to find
+     * @return The {@link CodeItem} displaying {@code code}, or {@code null} if
+     *         there isn't one
+     */
+    public CodeItem getItem(Code code) {
+
+        for (CodeItem codeItem : codeItems) {
+
+            if (codeItem.getCode() == code)
+                return codeItem;
+
+        }
+
+        return null;
+
+    }
+
     /**
      * Removes a {@link CodeItem} from the table. Revalidates and repaints the
      * panel.
@@ -49,6 +49,7 @@ import com.google.zxing.MultiFormatReader;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.RGBLuminanceSource;
 import com.google.zxing.common.HybridBinarizer;
+import com.stephensantilli.totp.Base32;
 import com.stephensantilli.totp.Code;
 import com.stephensantilli.totp.UIListener;
 
@@ -113,7 +114,16 @@ public class Entry extends JPanel {
     public Code getCodeFromEntry() throws Exception {
 
         String name = nameField.getText();
-        String secret = secretField.getText();
+
+        String secret;
+        try {
+            secret = Base32.normalize(secretField.getText());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Unable to parse the secret! " + e.getMessage());
+        }
+
+        if (secret.isEmpty())
+            throw new Exception("Please enter a secret!");
 
         int digits = DEFAULT_DIGITS;
         try {